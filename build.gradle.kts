@@ -4,6 +4,7 @@ plugins {
     `maven-publish`
     signing
     alias(libs.plugins.nmcp)
+    alias(libs.plugins.jmh)
 }
 
 group = "dev.hollowcube"
@@ -23,6 +24,10 @@ dependencies {
     testImplementation(libs.junit.jupiter)
     testRuntimeOnly(libs.junit.platform.launcher)
     testImplementation(libs.bundles.logback)
+
+    jmh(libs.minestom)
+    jmh(libs.fastutil)
+    jmh(libs.bundles.logback)
 }
 
 java {
@@ -36,6 +41,17 @@ tasks.test {
     useJUnitPlatform()
 }
 
+sourceSets.named("jmh") {
+    // Reuse the test schematics as chunk scale benchmark inputs
+    resources.srcDir("src/test/resources")
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh
+    profilers.add("gc")
+    resultFormat = "JSON"
+}
+
 nmcpAggregation {
     centralPortal {
         username = System.getenv("SONATYPE_USERNAME")
@@ -0,0 +1,36 @@
+package net.hollowcube.schem.bench;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.util.Rotation;
+import net.minestom.server.instance.batch.RelativeBlockBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateBatchBenchmark {
+
+    @Param({"small", "medium", "chunk"})
+    public String size;
+
+    @Param({"NONE", "CLOCKWISE_90"})
+    public Rotation rotation;
+
+    private Schematic schematic;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SchematicFixtures.initServer();
+        schematic = SchematicFixtures.schematic(size);
+    }
+
+    @Benchmark
+    public RelativeBlockBatch createBatch() {
+        return schematic.createBatch(rotation);
+    }
+}
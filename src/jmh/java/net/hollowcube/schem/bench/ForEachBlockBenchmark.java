@@ -0,0 +1,49 @@
+package net.hollowcube.schem.bench;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.util.Rotation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForEachBlockBenchmark {
+
+    @Param({"small", "medium", "chunk"})
+    public String size;
+
+    @Param
+    public Rotation rotation;
+
+    private Schematic schematic;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SchematicFixtures.initServer();
+        schematic = SchematicFixtures.schematic(size);
+    }
+
+    @Benchmark
+    public void forEachBlock(Blackhole blackhole) {
+        schematic.forEachBlock(rotation, (pos, block) -> {
+            blackhole.consume(pos);
+            blackhole.consume(block);
+        });
+    }
+
+    @Benchmark
+    public void forEachBlockState(Blackhole blackhole) {
+        schematic.forEachBlockState(rotation, (x, y, z, stateId) -> {
+            blackhole.consume(x);
+            blackhole.consume(y);
+            blackhole.consume(z);
+            blackhole.consume(stateId);
+        });
+    }
+}
@@ -0,0 +1,73 @@
+package net.hollowcube.schem.bench;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.paste.SchematicPaster;
+import net.hollowcube.schem.util.Rotation;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.InstanceContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasteBenchmark {
+    private static final Vec ORIGIN = new Vec(0, 0, 0);
+
+    @Param({"small", "medium", "chunk"})
+    public String size;
+
+    @Param({"NONE", "CLOCKWISE_90"})
+    public Rotation rotation;
+
+    private Schematic schematic;
+    private InstanceContainer instance;
+    private SchematicPaster paster;
+    private SchematicPaster parallelPaster;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SchematicFixtures.initServer();
+        schematic = SchematicFixtures.schematic(size);
+        instance = MinecraftServer.getInstanceManager().createInstanceContainer();
+        paster = SchematicPaster.sections();
+        parallelPaster = SchematicPaster.parallel();
+
+        // Load every chunk up front so that only the paste itself is measured
+        var futures = new CompletableFuture<?>[9 * 9];
+        for (int x = -4; x <= 4; x++) {
+            for (int z = -4; z <= 4; z++)
+                futures[(x + 4) * 9 + z + 4] = instance.loadChunk(x, z);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MinecraftServer.getInstanceManager().unregisterInstance(instance);
+    }
+
+    @Benchmark
+    public void batch() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        schematic.createBatch(rotation).unsafeApply(instance, ORIGIN.blockX(), ORIGIN.blockY(), ORIGIN.blockZ(), latch::countDown);
+        latch.await();
+    }
+
+    @Benchmark
+    public void sections() {
+        paster.paste(instance, schematic, ORIGIN, rotation).join();
+    }
+
+    @Benchmark
+    public void parallel() {
+        parallelPaster.paste(instance, schematic, ORIGIN, rotation).join();
+    }
+}
@@ -0,0 +1,37 @@
+package net.hollowcube.schem.bench;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.reader.SchematicReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+    @Param({"small", "medium", "chunk"})
+    public String size;
+
+    @Param({"sponge", "structure", "litematica", "axiom", "mcedit", "detecting"})
+    public String format;
+
+    private SchematicReader reader;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        reader = SchematicFixtures.reader(format);
+        data = SchematicFixtures.encode(format, SchematicFixtures.schematic(size));
+    }
+
+    @Benchmark
+    public Schematic read() throws IOException {
+        return reader.read(data);
+    }
+}
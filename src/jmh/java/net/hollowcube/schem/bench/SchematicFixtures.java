@@ -0,0 +1,306 @@
+package net.hollowcube.schem.bench;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.builder.SchematicBuilder;
+import net.hollowcube.schem.reader.SchematicReader;
+import net.hollowcube.schem.util.VarIntReader;
+import net.hollowcube.schem.writer.SchematicWriter;
+import net.kyori.adventure.nbt.*;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.block.Block;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Generates the inputs shared by all benchmarks. Every format is produced from the same source schematic so the
+ * results are comparable between readers.
+ */
+final class SchematicFixtures {
+    private static final Block[] PATTERN_PALETTE = new Block[]{
+            Block.AIR,
+            Block.STONE,
+            Block.GLASS,
+            Block.OAK_PLANKS,
+            Block.OAK_STAIRS.withProperty("facing", "east"),
+            Block.OAK_STAIRS.withProperty("facing", "north").withProperty("half", "top"),
+            Block.OAK_FENCE.withProperty("north", "true").withProperty("west", "true"),
+            Block.OAK_LOG.withProperty("axis", "x"),
+            Block.OAK_SIGN.withProperty("rotation", "3"),
+            Block.FURNACE.withProperty("facing", "south"),
+    };
+
+    // Legacy id:data pairs which exist in legacy_blocks.json
+    private static final int[][] LEGACY_PATTERN = new int[][]{
+            {0, 0}, {1, 0}, {5, 0}, {20, 0}, {53, 1}, {53, 6}, {17, 4}
+    };
+
+    private static boolean serverInitialized = false;
+
+    /**
+     * Minestom must be initialized for anything touching the block manager (eg forEachBlock, createBatch).
+     */
+    static synchronized void initServer() {
+        if (serverInitialized) return;
+        MinecraftServer.init();
+        serverInitialized = true;
+    }
+
+    static Schematic schematic(String size) {
+        return switch (size) {
+            case "small" -> pattern(16, 16, 16);
+            case "medium" -> pattern(64, 64, 64);
+            case "chunk" -> {
+                try (var is = SchematicFixtures.class.getResourceAsStream("/2x2_chunk_vert.schem")) {
+                    Objects.requireNonNull(is, "2x2_chunk_vert.schem not found");
+                    yield SchematicReader.sponge().read(is.readAllBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            default -> throw new IllegalArgumentException("unknown size: " + size);
+        };
+    }
+
+    static byte[] encode(String format, Schematic schematic) {
+        try {
+            return switch (format) {
+                case "sponge", "detecting" -> SchematicWriter.sponge().write(schematic);
+                case "structure" -> structure(schematic);
+                case "litematica" -> litematica(schematic);
+                case "axiom" -> axiom(schematic);
+                case "mcedit" -> mcedit(schematic);
+                default -> throw new IllegalArgumentException("unknown format: " + format);
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static SchematicReader reader(String format) {
+        return switch (format) {
+            case "sponge" -> SchematicReader.sponge();
+            case "structure" -> SchematicReader.structure();
+            case "litematica" -> SchematicReader.litematica();
+            case "axiom" -> SchematicReader.axiom();
+            case "mcedit" -> SchematicReader.legacyMcEdit();
+            case "detecting" -> SchematicReader.detecting();
+            default -> throw new IllegalArgumentException("unknown format: " + format);
+        };
+    }
+
+    private static Schematic pattern(int width, int height, int length) {
+        var builder = SchematicBuilder.builder(new Vec(width, height, length));
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < length; z++) {
+                for (int x = 0; x < width; x++) {
+                    builder.block(x, y, z, PATTERN_PALETTE[Math.floorMod(x * 31 + y * 17 + z * 7, PATTERN_PALETTE.length)]);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static int[] paletteIndices(Schematic schematic) {
+        var size = schematic.size();
+        var indices = new int[size.blockX() * size.blockY() * size.blockZ()];
+        var reader = new VarIntReader(schematic.blockData());
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = reader.next();
+        return indices;
+    }
+
+    private static byte[] structure(Schematic schematic) throws IOException {
+        var size = schematic.size();
+        var indices = paletteIndices(schematic);
+
+        var blocks = ListBinaryTag.builder(BinaryTagTypes.COMPOUND);
+        for (int i = 0; i < indices.length; i++) {
+            int x = i % size.blockX(), z = (i / size.blockX()) % size.blockZ(), y = i / (size.blockX() * size.blockZ());
+            blocks.add(CompoundBinaryTag.builder()
+                    .put("pos", intList(x, y, z))
+                    .putInt("state", indices[i])
+                    .build());
+        }
+
+        var root = CompoundBinaryTag.builder()
+                .putInt("DataVersion", MinecraftServer.DATA_VERSION)
+                .put("size", intList(size.blockX(), size.blockY(), size.blockZ()))
+                .put("palette", blockStateList(schematic.blockPalette()))
+                .put("blocks", blocks.build())
+                .put("entities", ListBinaryTag.empty())
+                .build();
+        return gzipNamed("", root);
+    }
+
+    private static byte[] litematica(Schematic schematic) throws IOException {
+        var size = schematic.size();
+        var palette = schematic.blockPalette();
+        var bitsPerEntry = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(palette.size() - 1));
+
+        var region = CompoundBinaryTag.builder()
+                .put("Position", vec3(0, 0, 0))
+                .put("Size", vec3(size.blockX(), size.blockY(), size.blockZ()))
+                .put("BlockStatePalette", blockStateList(palette))
+                .putLongArray("BlockStates", packTight(paletteIndices(schematic), bitsPerEntry))
+                .put("TileEntities", ListBinaryTag.empty())
+                .put("Entities", ListBinaryTag.empty())
+                .build();
+        var root = CompoundBinaryTag.builder()
+                .putInt("MinecraftDataVersion", MinecraftServer.DATA_VERSION)
+                .putInt("Version", 6)
+                .putInt("SubVersion", 1)
+                .put("Metadata", CompoundBinaryTag.builder()
+                        .putString("Name", "bench")
+                        .putString("Author", "bench")
+                        .put("EnclosingSize", vec3(size.blockX(), size.blockY(), size.blockZ()))
+                        .build())
+                .put("Regions", CompoundBinaryTag.builder().put("bench", region).build())
+                .build();
+        return gzipNamed("", root);
+    }
+
+    private static byte[] axiom(Schematic schematic) throws IOException {
+        var size = schematic.size();
+        var palette = schematic.blockPalette();
+        var indices = paletteIndices(schematic);
+
+        var regions = ListBinaryTag.builder(BinaryTagTypes.COMPOUND);
+        for (int cy = 0; cy < (size.blockY() + 15) / 16; cy++) {
+            for (int cz = 0; cz < (size.blockZ() + 15) / 16; cz++) {
+                for (int cx = 0; cx < (size.blockX() + 15) / 16; cx++) {
+                    // Section local palette, everything outside the schematic is air (index 0 of the palette list)
+                    var sectionPalette = new IntArrayList();
+                    var sectionData = new int[4096];
+                    for (int i = 0; i < 4096; i++) {
+                        int x = cx * 16 + (i & 15), z = cz * 16 + ((i >> 4) & 15), y = cy * 16 + (i >> 8);
+                        int stateId = Block.AIR.stateId();
+                        if (x < size.blockX() && y < size.blockY() && z < size.blockZ())
+                            stateId = palette.get(indices[x + z * size.blockX() + y * size.blockX() * size.blockZ()]).stateId();
+                        int localIndex = sectionPalette.indexOf(stateId);
+                        if (localIndex == -1) {
+                            localIndex = sectionPalette.size();
+                            sectionPalette.add(stateId);
+                        }
+                        sectionData[i] = localIndex;
+                    }
+
+                    var localPalette = sectionPalette.intStream().mapToObj(Block::fromStateId).toList();
+                    var blockStates = CompoundBinaryTag.builder().put("palette", blockStateList(localPalette));
+                    if (localPalette.size() > 1) {
+                        var bitsPerEntry = Math.max(4, Integer.SIZE - Integer.numberOfLeadingZeros(localPalette.size() - 1));
+                        blockStates.putLongArray("data", packAligned(sectionData, bitsPerEntry));
+                    }
+                    regions.add(CompoundBinaryTag.builder()
+                            .putInt("X", cx).putInt("Y", cy).putInt("Z", cz)
+                            .put("BlockStates", blockStates.build())
+                            .build());
+                }
+            }
+        }
+
+        var header = new ByteArrayOutputStream();
+        BinaryTagIO.writer().write(CompoundBinaryTag.builder()
+                .putString("Name", "bench")
+                .putString("Author", "bench")
+                .build(), header);
+        var blockData = gzipNamed("", CompoundBinaryTag.builder()
+                .putInt("DataVersion", MinecraftServer.DATA_VERSION)
+                .put("BlockRegion", regions.build())
+                .build());
+
+        var out = new ByteArrayOutputStream();
+        var dos = new DataOutputStream(out);
+        dos.writeInt(0xAE5BB36);
+        dos.writeInt(header.size());
+        dos.write(header.toByteArray());
+        dos.writeInt(0); // No thumbnail
+        dos.writeInt(blockData.length);
+        dos.write(blockData);
+        return out.toByteArray();
+    }
+
+    private static byte[] mcedit(Schematic schematic) throws IOException {
+        var size = schematic.size();
+        var volume = size.blockX() * size.blockY() * size.blockZ();
+        var blockIds = new byte[volume];
+        var blockData = new byte[volume];
+        for (int i = 0; i < volume; i++) {
+            var legacy = LEGACY_PATTERN[i % LEGACY_PATTERN.length];
+            blockIds[i] = (byte) legacy[0];
+            blockData[i] = (byte) legacy[1];
+        }
+
+        var root = CompoundBinaryTag.builder()
+                .putShort("Width", (short) size.blockX())
+                .putShort("Height", (short) size.blockY())
+                .putShort("Length", (short) size.blockZ())
+                .putString("Materials", "Alpha")
+                .putByteArray("Blocks", blockIds)
+                .putByteArray("Data", blockData)
+                .build();
+        return gzipNamed("Schematic", root);
+    }
+
+    private static byte[] gzipNamed(String name, CompoundBinaryTag root) throws IOException {
+        var out = new ByteArrayOutputStream();
+        BinaryTagIO.writer().writeNamed(Map.entry(name, root), out, BinaryTagIO.Compression.GZIP);
+        return out.toByteArray();
+    }
+
+    private static ListBinaryTag blockStateList(List<Block> palette) {
+        var list = ListBinaryTag.builder(BinaryTagTypes.COMPOUND);
+        for (var block : palette) {
+            var tag = CompoundBinaryTag.builder().putString("Name", block.name());
+            if (!block.properties().isEmpty()) {
+                var properties = CompoundBinaryTag.builder();
+                block.properties().forEach(properties::putString);
+                tag.put("Properties", properties.build());
+            }
+            list.add(tag.build());
+        }
+        return list.build();
+    }
+
+    private static ListBinaryTag intList(int x, int y, int z) {
+        return ListBinaryTag.builder(BinaryTagTypes.INT)
+                .add(IntBinaryTag.intBinaryTag(x))
+                .add(IntBinaryTag.intBinaryTag(y))
+                .add(IntBinaryTag.intBinaryTag(z))
+                .build();
+    }
+
+    private static CompoundBinaryTag vec3(int x, int y, int z) {
+        return CompoundBinaryTag.builder().putInt("x", x).putInt("y", y).putInt("z", z).build();
+    }
+
+    private static long[] packAligned(int[] values, int bitsPerEntry) {
+        int valuesPerLong = 64 / bitsPerEntry;
+        var longs = new long[(values.length + valuesPerLong - 1) / valuesPerLong];
+        for (int i = 0; i < values.length; i++)
+            longs[i / valuesPerLong] |= (long) values[i] << ((i % valuesPerLong) * bitsPerEntry);
+        return longs;
+    }
+
+    private static long[] packTight(int[] values, int bitsPerEntry) {
+        var longs = new long[(int) (((long) values.length * bitsPerEntry + 63) / 64)];
+        for (int i = 0; i < values.length; i++) {
+            long bitIndex = (long) i * bitsPerEntry;
+            int longIndex = (int) (bitIndex >> 6), shift = (int) (bitIndex & 63);
+            longs[longIndex] |= (long) values[i] << shift;
+            if (shift + bitsPerEntry > 64)
+                longs[longIndex + 1] |= (long) values[i] >>> (64 - shift);
+        }
+        return longs;
+    }
+
+    private SchematicFixtures() {
+    }
+}
@@ -0,0 +1,53 @@
+package net.hollowcube.schem.bench;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.writer.Compression;
+import net.hollowcube.schem.writer.SchematicWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+    @Param({"small", "medium", "chunk"})
+    public String size;
+
+    @Param({"sponge", "structure", "litematica"})
+    public String format;
+
+    @Param({"gzip", "parallel", "fast"})
+    public String compression;
+
+    private SchematicWriter writer;
+    private Compression writeCompression;
+    private Schematic schematic;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        writer = switch (format) {
+            case "sponge" -> SchematicWriter.sponge();
+            case "structure" -> SchematicWriter.structure();
+            case "litematica" -> SchematicWriter.litematica();
+            default -> throw new IllegalArgumentException("unknown format: " + format);
+        };
+        writeCompression = switch (compression) {
+            case "gzip" -> Compression.gzip();
+            case "parallel" -> Compression.parallel(Deflater.DEFAULT_COMPRESSION);
+            case "fast" -> Compression.fast();
+            default -> throw new IllegalArgumentException("unknown compression: " + compression);
+        };
+        schematic = SchematicFixtures.schematic(size);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return writer.write(schematic, writeCompression);
+    }
+}
@@ -1,23 +1,34 @@
 package net.hollowcube.schem;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.hollowcube.schem.util.BlockConsumer;
+import net.hollowcube.schem.util.CoordinateUtil;
+import net.hollowcube.schem.util.IntBlockConsumer;
 import net.hollowcube.schem.util.Rotation;
 import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.kyori.adventure.nbt.IntArrayBinaryTag;
+import net.minestom.server.coordinate.BlockVec;
 import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
-public record AxiomBlueprint(
-        CompoundBinaryTag header,
-        ByteArrayBinaryTag thumbnail,
-        Point size,
-        List<Block> palette,
-        List<SectionData> sections
-) implements Schematic {
+/**
+ * <p>An Axiom blueprint. Blocks are stored in 16x16x16 sections which line up with chunk sections, each with its own
+ * palette. Section block data is in section index order ({@code (y << 8) | (z << 4) | x}), and a section without
+ * block data is filled with its only palette entry.</p>
+ *
+ * <p>Blocks are iterated section by section at their blueprint position (the section position times 16 plus the
+ * local position). For writers, the sections are also flattened into a single palette and {@link BlockStorage}
+ * starting at {@link #offset()}, which are computed on first use and cached.</p>
+ */
+public final class AxiomBlueprint implements Schematic {
     public static final int MAGIC_NUMBER = 0xAE5BB36;
     public static final int BLOCK_PALETTE_SIZE = 4096;
 
@@ -29,9 +40,83 @@ public record AxiomBlueprint(
     ) {
     }
 
+    private record Flattened(List<Block> blockPalette, BlockStorage blockStorage) {
+    }
+
+    private final CompoundBinaryTag header;
+    private final ByteArrayBinaryTag thumbnail;
+    private final Point size;
+    private final List<Block> palette;
+    private final List<SectionData> sections;
+    private final Point offset;
+
+    // Lazily computed, see the class doc
+    private volatile @Nullable Flattened flattened = null;
+
+    public AxiomBlueprint(
+            CompoundBinaryTag header, ByteArrayBinaryTag thumbnail, Point size,
+            List<Block> palette, List<SectionData> sections
+    ) {
+        this.header = header;
+        this.thumbnail = thumbnail;
+        this.size = size;
+        this.palette = List.copyOf(palette);
+        this.sections = List.copyOf(sections);
+        this.offset = minSection(this.sections).mul(16);
+    }
+
+    public CompoundBinaryTag header() {
+        return header;
+    }
+
+    public List<Block> palette() {
+        return palette;
+    }
+
+    public List<SectionData> sections() {
+        return sections;
+    }
+
     @Override
     public void forEachBlock(Rotation rotation, BlockConsumer consumer) {
+        for (var section : sections) {
+            var sectionPalette = section.palette();
+            var palette = new Block[sectionPalette.size()];
+            for (int i = 0; i < palette.length; i++)
+                palette[i] = CoordinateUtil.rotateBlock(sectionPalette.get(i), rotation);
+
+            var blockData = section.blockData();
+            int baseX = section.chunkPos().blockX() << 4;
+            int baseY = section.chunkPos().blockY() << 4;
+            int baseZ = section.chunkPos().blockZ() << 4;
+            for (int index = 0; index < BLOCK_PALETTE_SIZE; index++) {
+                int x = baseX + (index & 15), y = baseY + (index >> 8), z = baseZ + ((index >> 4) & 15);
+                var block = palette[blockData == null ? 0 : blockData.get(index)];
+                consumer.accept(new BlockVec(
+                        CoordinateUtil.rotateX(x, z, rotation), y,
+                        CoordinateUtil.rotateZ(x, z, rotation)
+                ), block);
+            }
+        }
+    }
 
+    @Override
+    public void forEachBlockState(Rotation rotation, IntBlockConsumer consumer) {
+        for (var section : sections) {
+            var palette = CoordinateUtil.rotatePalette(section.palette().toArray(Block[]::new), rotation);
+            var blockData = section.blockData();
+            int baseX = section.chunkPos().blockX() << 4;
+            int baseY = section.chunkPos().blockY() << 4;
+            int baseZ = section.chunkPos().blockZ() << 4;
+            for (int index = 0; index < BLOCK_PALETTE_SIZE; index++) {
+                int x = baseX + (index & 15), y = baseY + (index >> 8), z = baseZ + ((index >> 4) & 15);
+                consumer.accept(
+                        CoordinateUtil.rotateX(x, z, rotation), y,
+                        CoordinateUtil.rotateZ(x, z, rotation),
+                        palette[blockData == null ? 0 : blockData.get(index)]
+                );
+            }
+        }
     }
 
     @Override
@@ -58,19 +143,116 @@ public record AxiomBlueprint(
         return size;
     }
 
+    /**
+     * Returns the minimum corner of the lowest section in blueprint coordinates.
+     */
+    @Override
+    public Point offset() {
+        return offset;
+    }
+
     @Override
     public boolean hasBlockData() {
         return true;
     }
 
+    /**
+     * Returns the union of the section palettes, with air first.
+     */
     @Override
     public List<Block> blockPalette() {
-        return List.of();
+        return flattened().blockPalette();
+    }
+
+    /**
+     * Returns every section merged into one storage of {@link #size()}, starting at {@link #offset()}. Space not
+     * covered by any section is air.
+     */
+    @Override
+    public BlockStorage blockStorage() {
+        return flattened().blockStorage();
     }
 
     @Override
     public ByteArrayBinaryTag blockData() {
-        return SpongeSchematic.EMPTY_BYTE_ARRAY;
+        return flattened().blockStorage().toVarInts();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AxiomBlueprint other)) return false;
+        return header.equals(other.header) && thumbnail.equals(other.thumbnail) && size.equals(other.size)
+                && palette.equals(other.palette) && sections.equals(other.sections);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(header, thumbnail, size, palette, sections);
+    }
+
+    @Override
+    public String toString() {
+        return "AxiomBlueprint[header=" + header + ", size=" + size + ", sections=" + sections.size() + "]";
+    }
+
+    private Flattened flattened() {
+        var result = flattened;
+        if (result != null) return result;
+
+        int minX = offset.blockX() >> 4, minY = offset.blockY() >> 4, minZ = offset.blockZ() >> 4;
+        int paletteSize = 1;
+        for (var section : sections) paletteSize = Math.max(paletteSize, section.palette().size());
+        int sizeX = size.blockX(), sizeY = size.blockY(), sizeZ = size.blockZ();
+
+        // Air is always index zero since it fills any space without a section
+        var palette = new ArrayList<Block>();
+        Object2IntMap<Block> paletteIndices = new Object2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
+        palette.add(Block.AIR);
+        paletteIndices.put(Block.AIR, 0);
+
+        // The largest section palette is only a lower bound, the storage widens as the palette grows
+        var storage = BlockStorage.builder(size, Math.min(paletteSize, 1 << BlockStorage.MAX_BITS_PER_ENTRY));
+        for (var section : sections) {
+            // Section palette index -> flattened palette index
+            var sectionPalette = section.palette();
+            var remap = new int[sectionPalette.size()];
+            for (int i = 0; i < remap.length; i++) {
+                var block = sectionPalette.get(i);
+                int index = paletteIndices.getInt(block);
+                if (index == -1) {
+                    index = palette.size();
+                    palette.add(block);
+                    paletteIndices.put(block, index);
+                }
+                remap[i] = index;
+            }
+
+            var blockData = section.blockData();
+            int baseX = (section.chunkPos().blockX() - minX) << 4;
+            int baseY = (section.chunkPos().blockY() - minY) << 4;
+            int baseZ = (section.chunkPos().blockZ() - minZ) << 4;
+            for (int index = 0; index < BLOCK_PALETTE_SIZE; index++) {
+                int x = baseX + (index & 15), y = baseY + (index >> 8), z = baseZ + ((index >> 4) & 15);
+                if (x >= sizeX || y >= sizeY || z >= sizeZ) continue;
+                int paletteIndex = remap[blockData == null ? 0 : blockData.get(index)];
+                // Storage starts as air, so uniform air sections need no writes
+                if (paletteIndex != 0) storage.set(x + z * sizeX + y * sizeX * sizeZ, paletteIndex);
+            }
+        }
+
+        return flattened = new Flattened(List.copyOf(palette), storage.build());
     }
 
+    private static Point minSection(List<SectionData> sections) {
+        if (sections.isEmpty()) return Vec.ZERO;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        for (var section : sections) {
+            minX = Math.min(minX, section.chunkPos().blockX());
+            minY = Math.min(minY, section.chunkPos().blockY());
+            minZ = Math.min(minZ, section.chunkPos().blockZ());
+        }
+        return new Vec(minX, minY, minZ);
+    }
 }
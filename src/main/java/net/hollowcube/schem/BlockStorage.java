@@ -0,0 +1,326 @@
+package net.hollowcube.schem;
+
+import net.kyori.adventure.nbt.ByteArrayBinaryTag;
+import net.minestom.server.coordinate.Point;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * <p>Bit-packed palette indices for a cuboid of blocks, in the same XZY order as Sponge block data (index
+ * {@code x + z * sizeX + y * sizeX * sizeZ}). Entries are between 1 and {@value #MAX_BITS_PER_ENTRY} bits wide,
+ * never spanning two longs, so any entry can be read in constant time.</p>
+ *
+ * <p>Storage is immutable once built. Use {@link #builder(Point, int)} to create one, or
+ * {@link #fromVarInts(Point, int, byte[])} to decode Sponge varint block data.</p>
+ */
+public final class BlockStorage {
+    public static final int MAX_BITS_PER_ENTRY = 16;
+
+    private static final BlockStorage EMPTY = new BlockStorage(0, 0, 0, 1, new long[0]);
+
+    public static BlockStorage empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder(Point size, int paletteSize) {
+        return new Builder(size.blockX(), size.blockY(), size.blockZ(), bitsFor(paletteSize));
+    }
+
+    /**
+     * Decodes Sponge varint block data (one varint palette index per block) into packed storage.
+     *
+     * @throws IllegalArgumentException if the data does not contain exactly one entry per block
+     */
+    public static BlockStorage fromVarInts(Point size, int paletteSize, byte[] data) {
+        var builder = builder(size, paletteSize);
+        int volume = builder.volume, cursor = 0;
+        for (int i = 0; i < volume; i++) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (cursor >= data.length || shift >= 32)
+                    throw new IllegalArgumentException("block data ended early at entry " + i + " of " + volume);
+                byte b = data[cursor++];
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) break;
+            }
+            builder.set(i, value);
+        }
+        if (cursor != data.length)
+            throw new IllegalArgumentException("block data has " + (data.length - cursor) + " trailing bytes");
+        return builder.build();
+    }
+
+    public static BlockStorage fromVarInts(Point size, int paletteSize, ByteArrayBinaryTag data) {
+        return fromVarInts(size, paletteSize, data.value());
+    }
+
+    /**
+     * Returns the number of bits required to store indices into a palette of the given size. Empty and single entry
+     * palettes still use one bit.
+     */
+    public static int bitsFor(int paletteSize) {
+        if (paletteSize <= 1) return 1;
+        var bits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+        if (bits > MAX_BITS_PER_ENTRY)
+            throw new IllegalArgumentException("palette too large: " + paletteSize);
+        return bits;
+    }
+
+    private final int sizeX, sizeY, sizeZ;
+    private final int bitsPerEntry;
+    private final int valuesPerLong;
+    private final long mask;
+    private final long[] data;
+
+    private volatile @Nullable ByteArrayBinaryTag varInts = null;
+
+    private BlockStorage(int sizeX, int sizeY, int sizeZ, int bitsPerEntry, long[] data) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.bitsPerEntry = bitsPerEntry;
+        this.valuesPerLong = 64 / bitsPerEntry;
+        this.mask = (1L << bitsPerEntry) - 1;
+        this.data = data;
+    }
+
+    public int sizeX() {
+        return sizeX;
+    }
+
+    public int sizeY() {
+        return sizeY;
+    }
+
+    public int sizeZ() {
+        return sizeZ;
+    }
+
+    public int volume() {
+        return sizeX * sizeY * sizeZ;
+    }
+
+    public int bitsPerEntry() {
+        return bitsPerEntry;
+    }
+
+    /**
+     * Returns the palette index at the given XZY index.
+     */
+    public int get(int index) {
+        Objects.checkIndex(index, volume());
+        return (int) ((data[index / valuesPerLong] >>> ((index % valuesPerLong) * bitsPerEntry)) & mask);
+    }
+
+    public int get(int x, int y, int z) {
+        Objects.checkIndex(x, sizeX);
+        Objects.checkIndex(y, sizeY);
+        Objects.checkIndex(z, sizeZ);
+        return get(x + z * sizeX + y * sizeX * sizeZ);
+    }
+
+    /**
+     * Copies the palette indices of a sub-region into {@code out}, which is filled in the same XZY order as this
+     * storage (index {@code x + z * width + y * width * length} relative to the region minimum).
+     */
+    public void get(int minX, int minY, int minZ, int width, int height, int length, int[] out) {
+        Objects.checkFromIndexSize(minX, width, sizeX);
+        Objects.checkFromIndexSize(minY, height, sizeY);
+        Objects.checkFromIndexSize(minZ, length, sizeZ);
+        Objects.checkFromIndexSize(0, width * height * length, out.length);
+        if (width == 0 || height == 0 || length == 0) return;
+
+        int outIndex = 0;
+        for (int y = minY; y < minY + height; y++) {
+            for (int z = minZ; z < minZ + length; z++) {
+                int index = minX + z * sizeX + y * sizeX * sizeZ;
+                int longIndex = index / valuesPerLong, subIndex = index % valuesPerLong;
+                long word = data[longIndex];
+                for (int x = 0; x < width; x++) {
+                    out[outIndex++] = (int) ((word >>> (subIndex * bitsPerEntry)) & mask);
+                    if (++subIndex == valuesPerLong && x + 1 < width) {
+                        subIndex = 0;
+                        word = data[++longIndex];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns every palette index in XZY order.
+     */
+    public int[] toArray() {
+        var out = new int[volume()];
+        get(0, 0, 0, sizeX, sizeY, sizeZ, out);
+        return out;
+    }
+
+    /**
+     * Returns the entries encoded as Sponge varint block data. The encoding is computed on first use and cached.
+     */
+    public ByteArrayBinaryTag toVarInts() {
+        var result = varInts;
+        if (result != null) return result;
+
+        var values = toArray();
+        int length = 0;
+        for (var value : values) length += varIntSize(value);
+        var bytes = new byte[length];
+        int cursor = 0;
+        for (var value : values) {
+            while ((value & ~0x7F) != 0) {
+                bytes[cursor++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[cursor++] = (byte) value;
+        }
+        return varInts = ByteArrayBinaryTag.byteArrayBinaryTag(bytes);
+    }
+
+    /**
+     * Returns the length in bytes of {@link #toVarInts()}, computed without encoding the entries.
+     */
+    public long varIntsLength() {
+        var cached = varInts;
+        if (cached != null) return cached.size();
+
+        long length = 0;
+        var row = new int[sizeX];
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                get(0, y, z, sizeX, 1, 1, row);
+                for (var value : row) length += varIntSize(value);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the same bytes as {@link #toVarInts()} one row at a time, without holding the whole encoding in memory.
+     */
+    public void writeVarInts(OutputStream out) throws IOException {
+        var row = new int[sizeX];
+        var bytes = new byte[sizeX * 5];
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                get(0, y, z, sizeX, 1, 1, row);
+                int cursor = 0;
+                for (var value : row) {
+                    while ((value & ~0x7F) != 0) {
+                        bytes[cursor++] = (byte) ((value & 0x7F) | 0x80);
+                        value >>>= 7;
+                    }
+                    bytes[cursor++] = (byte) value;
+                }
+                out.write(bytes, 0, cursor);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BlockStorage other)) return false;
+        if (sizeX != other.sizeX || sizeY != other.sizeY || sizeZ != other.sizeZ) return false;
+        for (int i = 0; i < volume(); i++) {
+            if (get(i) != other.get(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(sizeX, sizeY, sizeZ);
+        for (int i = 0; i < volume(); i++) result = 31 * result + get(i);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockStorage[size=" + sizeX + "x" + sizeY + "x" + sizeZ + ", bitsPerEntry=" + bitsPerEntry + "]";
+    }
+
+    private static int varIntSize(int value) {
+        return value < 0 ? 5 : Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+    private static long[] allocate(int volume, int bitsPerEntry) {
+        int valuesPerLong = 64 / bitsPerEntry;
+        return new long[(volume + valuesPerLong - 1) / valuesPerLong];
+    }
+
+    /**
+     * Writable storage which grows its entry width as larger palette indices are written.
+     *
+     * <p>The builder stays usable after {@link #build()}. The built storage shares the data until the next write,
+     * which copies it first.</p>
+     */
+    public static final class Builder {
+        private final int sizeX, sizeY, sizeZ, volume;
+        private int bitsPerEntry;
+        private int valuesPerLong;
+        private long mask;
+        private long[] data;
+        // Whether the data is shared with a built storage, and so must be copied before it is written
+        private boolean shared = false;
+
+        private Builder(int sizeX, int sizeY, int sizeZ, int bitsPerEntry) {
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.sizeZ = sizeZ;
+            this.volume = sizeX * sizeY * sizeZ;
+            this.bitsPerEntry = bitsPerEntry;
+            this.valuesPerLong = 64 / bitsPerEntry;
+            this.mask = (1L << bitsPerEntry) - 1;
+            this.data = allocate(volume, bitsPerEntry);
+        }
+
+        public int get(int index) {
+            Objects.checkIndex(index, volume);
+            return (int) ((data[index / valuesPerLong] >>> ((index % valuesPerLong) * bitsPerEntry)) & mask);
+        }
+
+        public Builder set(int index, int value) {
+            Objects.checkIndex(index, volume);
+            if (value < 0) throw new IllegalArgumentException("negative palette index: " + value);
+            if (value > mask) resize(bitsFor(value + 1));
+            else if (shared) data = data.clone();
+            shared = false;
+
+            int longIndex = index / valuesPerLong;
+            int shift = (index % valuesPerLong) * bitsPerEntry;
+            data[longIndex] = (data[longIndex] & ~(mask << shift)) | ((long) value << shift);
+            return this;
+        }
+
+        public Builder set(int x, int y, int z, int value) {
+            Objects.checkIndex(x, sizeX);
+            Objects.checkIndex(y, sizeY);
+            Objects.checkIndex(z, sizeZ);
+            return set(x + z * sizeX + y * sizeX * sizeZ, value);
+        }
+
+        public BlockStorage build() {
+            if (volume == 0) return EMPTY;
+            shared = true;
+            return new BlockStorage(sizeX, sizeY, sizeZ, bitsPerEntry, data);
+        }
+
+        private void resize(int newBitsPerEntry) {
+            var newData = allocate(volume, newBitsPerEntry);
+            int newValuesPerLong = 64 / newBitsPerEntry;
+            for (int i = 0; i < volume; i++) {
+                long value = get(i);
+                newData[i / newValuesPerLong] |= value << ((i % newValuesPerLong) * newBitsPerEntry);
+            }
+            this.bitsPerEntry = newBitsPerEntry;
+            this.valuesPerLong = newValuesPerLong;
+            this.mask = (1L << newBitsPerEntry) - 1;
+            this.data = newData;
+        }
+    }
+}
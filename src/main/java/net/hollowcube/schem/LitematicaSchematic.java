@@ -1,26 +1,114 @@
 package net.hollowcube.schem;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.hollowcube.schem.util.BlockConsumer;
+import net.hollowcube.schem.util.IntBlockConsumer;
 import net.hollowcube.schem.util.Rotation;
 import net.kyori.adventure.nbt.*;
 import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
 import org.jetbrains.annotations.Nullable;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-public record LitematicaSchematic(
-        CompoundBinaryTag metadata,
-        Point size,
-        Map<String, Schematic> regions
-) implements Schematic {
+/**
+ * <p>A Litematica schematic, made up of one or more named regions. Each region is a schematic whose
+ * {@link Schematic#offset()} is its position relative to the schematic origin.</p>
+ *
+ * <p>Blocks are iterated region by region, in file order. For writers, the regions are also flattened into a single
+ * palette and {@link BlockStorage} covering the enclosing size (with any space between regions being air), see
+ * {@link #blockStorage()}. The flattened view is only built when block data is requested (eg by writers), while the
+ * combined {@link #blockEntities()} and {@link #entities()} are gathered from the regions on their own. All of them
+ * are computed on first use and cached.</p>
+ */
+public final class LitematicaSchematic implements Schematic {
+    private final CompoundBinaryTag metadata;
+    private final Point size;
+    private final Map<String, Schematic> regions;
+    private final Point offset;
+
+    private record Flattened(List<Block> blockPalette, BlockStorage blockStorage) {
+    }
+
+    // Lazily computed views, see the class doc
+    private volatile @Nullable Flattened flattened = null;
+    private volatile @Nullable List<BlockEntityData> blockEntities = null;
+    private volatile @Nullable List<CompoundBinaryTag> entities = null;
+
+    public LitematicaSchematic(CompoundBinaryTag metadata, Point size, Map<String, Schematic> regions) {
+        this.metadata = metadata;
+        this.size = size;
+        // Keep the region order from the file
+        this.regions = Collections.unmodifiableMap(new LinkedHashMap<>(regions));
+        this.offset = minOffset(this.regions.values());
+    }
+
+    @Override
+    public CompoundBinaryTag metadata() {
+        return metadata;
+    }
+
+    @Override
+    public Point size() {
+        return size;
+    }
+
+    /**
+     * Returns the minimum corner of the regions relative to the schematic origin.
+     */
+    @Override
+    public Point offset() {
+        return offset;
+    }
+
+    public Map<String, Schematic> regions() {
+        return regions;
+    }
 
     @Override
     public void forEachBlock(Rotation rotation, BlockConsumer consumer) {
+        for (var region : regions.values())
+            region.forEachBlock(rotation, consumer);
+    }
 
+    @Override
+    public void forEachBlockState(Rotation rotation, IntBlockConsumer consumer) {
+        for (var region : regions.values())
+            region.forEachBlockState(rotation, consumer);
+    }
+
+    /**
+     * Iterates the regions concurrently on the given executor, one task per region. The consumer must be thread-safe.
+     * Where regions overlap the order in which their blocks are visited is undefined.
+     *
+     * @return A future completed once every region has been iterated
+     */
+    public CompletableFuture<Void> forEachBlockParallel(Rotation rotation, BlockConsumer consumer, Executor executor) {
+        var futures = new ArrayList<CompletableFuture<Void>>(regions.size());
+        for (var region : regions.values())
+            futures.add(CompletableFuture.runAsync(() -> region.forEachBlock(rotation, consumer), executor));
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Primitive variant of {@link #forEachBlockParallel(Rotation, BlockConsumer, Executor)}.
+     */
+    public CompletableFuture<Void> forEachBlockStateParallel(Rotation rotation, IntBlockConsumer consumer, Executor executor) {
+        var futures = new ArrayList<CompletableFuture<Void>>(regions.size());
+        for (var region : regions.values())
+            futures.add(CompletableFuture.runAsync(() -> region.forEachBlockState(rotation, consumer), executor));
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
     }
 
     @Override
@@ -52,29 +140,144 @@ public record LitematicaSchematic(
         return true;
     }
 
+    /**
+     * Returns the union of the region palettes, with air first.
+     */
     @Override
     public List<Block> blockPalette() {
-        return Schematic.super.blockPalette();
+        return flattened().blockPalette();
+    }
+
+    /**
+     * Returns the blocks of every region merged into one storage of {@link #size()}, starting at {@link #offset()}.
+     * Where regions overlap, later regions win.
+     */
+    @Override
+    public BlockStorage blockStorage() {
+        return flattened().blockStorage();
     }
 
     @Override
     public ByteArrayBinaryTag blockData() {
-        return Schematic.super.blockData();
+        return flattened().blockStorage().toVarInts();
     }
 
+    /**
+     * Returns the block entities of every region, positioned relative to {@link #offset()} like the flattened
+     * {@link #blockStorage()}.
+     */
     @Override
     public List<BlockEntityData> blockEntities() {
-        var allBlockEntites = new ArrayList<BlockEntityData>();
-        for (var region : regions.values())
-            allBlockEntites.addAll(region.blockEntities());
-        return allBlockEntites;
+        var result = blockEntities;
+        if (result != null) return result;
+
+        var allBlockEntities = new ArrayList<BlockEntityData>();
+        for (var region : regions.values()) {
+            var regionOffset = region.offset().sub(offset);
+            for (var blockEntity : region.blockEntities()) {
+                var pos = blockEntity.position().add(regionOffset);
+                allBlockEntities.add(new BlockEntityData(blockEntity.id(), pos, blockEntity.data()));
+            }
+        }
+        return blockEntities = List.copyOf(allBlockEntities);
     }
 
     @Override
     public List<CompoundBinaryTag> entities() {
+        var result = entities;
+        if (result != null) return result;
+
         var allEntities = new ArrayList<CompoundBinaryTag>();
         for (var region : regions.values())
             allEntities.addAll(region.entities());
-        return allEntities;
+        return entities = List.copyOf(allEntities);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LitematicaSchematic other)) return false;
+        return metadata.equals(other.metadata) && size.equals(other.size) && regions.equals(other.regions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(metadata, size, regions);
+    }
+
+    @Override
+    public String toString() {
+        return "LitematicaSchematic[metadata=" + metadata + ", size=" + size + ", regions=" + regions.keySet() + "]";
+    }
+
+    private Flattened flattened() {
+        var result = flattened;
+        if (result != null) return result;
+
+        int minX = offset.blockX(), minY = offset.blockY(), minZ = offset.blockZ();
+        int paletteSize = 1;
+        for (var region : regions.values())
+            paletteSize = Math.max(paletteSize, region.blockPalette().size());
+        int sizeX = size.blockX(), sizeY = size.blockY(), sizeZ = size.blockZ();
+
+        // Air is always index zero since it fills the space between regions
+        var palette = new ArrayList<Block>();
+        Object2IntMap<Block> paletteIndices = new Object2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
+        palette.add(Block.AIR);
+        paletteIndices.put(Block.AIR, 0);
+
+        // The largest region palette is only a lower bound, the storage widens as the palette grows
+        var storage = BlockStorage.builder(size, Math.min(paletteSize, 1 << BlockStorage.MAX_BITS_PER_ENTRY));
+        for (var region : regions.values()) {
+            // Region palette index -> flattened palette index
+            var regionPalette = region.blockPalette();
+            var remap = new int[regionPalette.size()];
+            for (int i = 0; i < remap.length; i++) {
+                var block = regionPalette.get(i);
+                int index = paletteIndices.getInt(block);
+                if (index == -1) {
+                    index = palette.size();
+                    palette.add(block);
+                    paletteIndices.put(block, index);
+                }
+                remap[i] = index;
+            }
+
+            var regionStorage = region.blockStorage();
+            int baseX = region.offset().blockX() - minX;
+            int baseY = region.offset().blockY() - minY;
+            int baseZ = region.offset().blockZ() - minZ;
+            var row = new int[regionStorage.sizeX()];
+            for (int y = 0; y < regionStorage.sizeY(); y++) {
+                int targetY = baseY + y;
+                if (targetY < 0 || targetY >= sizeY) continue;
+                for (int z = 0; z < regionStorage.sizeZ(); z++) {
+                    int targetZ = baseZ + z;
+                    if (targetZ < 0 || targetZ >= sizeZ) continue;
+                    regionStorage.get(0, y, z, row.length, 1, 1, row);
+                    int rowIndex = targetZ * sizeX + targetY * sizeX * sizeZ;
+                    for (int x = 0; x < row.length; x++) {
+                        int targetX = baseX + x;
+                        if (targetX < 0 || targetX >= sizeX) continue;
+                        storage.set(rowIndex + targetX, remap[row[x]]);
+                    }
+                }
+            }
+        }
+
+        return flattened = new Flattened(List.copyOf(palette), storage.build());
+    }
+
+    private static Point minOffset(Collection<Schematic> regions) {
+        if (regions.isEmpty()) return Vec.ZERO;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        for (var region : regions) {
+            var regionOffset = region.offset();
+            minX = Math.min(minX, regionOffset.blockX());
+            minY = Math.min(minY, regionOffset.blockY());
+            minZ = Math.min(minZ, regionOffset.blockZ());
+        }
+        return new Vec(minX, minY, minZ);
     }
 }
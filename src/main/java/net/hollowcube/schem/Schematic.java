@@ -2,6 +2,7 @@ package net.hollowcube.schem;
 
 import net.hollowcube.schem.util.BlockConsumer;
 import net.hollowcube.schem.util.BlockTransformer;
+import net.hollowcube.schem.util.IntBlockConsumer;
 import net.hollowcube.schem.util.Rotation;
 import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
@@ -70,6 +71,21 @@ public interface Schematic {
 
     void forEachBlock(Rotation rotation, BlockConsumer consumer);
 
+    default void forEachBlockState(IntBlockConsumer consumer) {
+        forEachBlockState(Rotation.NONE, consumer);
+    }
+
+    /**
+     * Primitive variant of {@link #forEachBlock(Rotation, BlockConsumer)} which passes the position and state id of
+     * each block without allocating. Block entity data is not included, see {@link #blockEntities()}.
+     *
+     * <p>The default implementation adapts {@link #forEachBlock(Rotation, BlockConsumer)}, so only avoids allocation
+     * if the schematic overrides it.</p>
+     */
+    default void forEachBlockState(Rotation rotation, IntBlockConsumer consumer) {
+        forEachBlock(rotation, (pos, block) -> consumer.accept(pos.blockX(), pos.blockY(), pos.blockZ(), block.stateId()));
+    }
+
     default RelativeBlockBatch createBatch() {
         return createBatch(Rotation.NONE, null);
     }
@@ -128,6 +144,21 @@ public interface Schematic {
         return SpongeSchematic.EMPTY_BYTE_ARRAY;
     }
 
+    /**
+     * Returns the block data for the entire schematic as packed palette indices, in the same order as
+     * {@link #blockData()}. Unlike the varint encoding, any block may be read without decoding those before it.
+     *
+     * <p>Note: the default implementation decodes {@link #blockData()} on every call. Schematics which are
+     * stored as packed indices return them directly.</p>
+     *
+     * @return The (computed) block storage for the schematic, or empty storage if there is no block data
+     */
+    default BlockStorage blockStorage() {
+        var blockData = blockData();
+        if (blockData.size() == 0) return BlockStorage.empty();
+        return BlockStorage.fromVarInts(size(), blockPalette().size(), blockData);
+    }
+
     default Collection<BlockEntityData> blockEntities() {
         return List.of();
     }
@@ -0,0 +1,65 @@
+package net.hollowcube.schem;
+
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * <p>The descriptive parts of a schematic, read without decoding its block data, block entities, entities or
+ * biomes. See {@link net.hollowcube.schem.reader.SchematicReader#readHeader(byte[])}.</p>
+ *
+ * <p>Some formats do not store everything in their header. Axiom blueprints only know their size once the block
+ * data has been inflated, so it is reported as zero, and formats without a block state palette (legacy MCEdit, Axiom)
+ * report an empty palette.</p>
+ *
+ * @param blockPalette The distinct block states used by the schematic, if known without reading the block data
+ */
+public record SchematicHeader(
+        Format format,
+        CompoundBinaryTag metadata,
+        @Nullable String name,
+        @Nullable String author,
+        @Nullable Instant createdAt,
+        Point size,
+        Point offset,
+        List<Block> blockPalette
+) {
+
+    public enum Format {
+        SPONGE,
+        STRUCTURE,
+        LITEMATICA,
+        AXIOM,
+        MCEDIT,
+        UNKNOWN
+    }
+
+    /**
+     * Creates a header describing an already read schematic.
+     */
+    public static SchematicHeader of(Schematic schematic) {
+        Format format = Format.UNKNOWN;
+        if (schematic instanceof SpongeSchematic) format = Format.SPONGE;
+        else if (schematic instanceof Structure) format = Format.STRUCTURE;
+        else if (schematic instanceof LitematicaSchematic) format = Format.LITEMATICA;
+        else if (schematic instanceof AxiomBlueprint) format = Format.AXIOM;
+        return new SchematicHeader(
+                format, schematic.metadata(),
+                schematic.name(), schematic.author(), schematic.createdAt(),
+                schematic.size(), schematic.offset(),
+                schematic.blockPalette()
+        );
+    }
+
+    public SchematicHeader {
+        blockPalette = List.copyOf(blockPalette);
+    }
+
+    public SchematicHeader(Format format, CompoundBinaryTag metadata, Point size, Point offset, List<Block> blockPalette) {
+        this(format, metadata, null, null, null, size, offset, blockPalette);
+    }
+}
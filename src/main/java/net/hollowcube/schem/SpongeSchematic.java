@@ -4,8 +4,8 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import net.hollowcube.schem.util.BlockConsumer;
 import net.hollowcube.schem.util.CoordinateUtil;
+import net.hollowcube.schem.util.IntBlockConsumer;
 import net.hollowcube.schem.util.Rotation;
-import net.hollowcube.schem.util.VarIntReader;
 import net.kyori.adventure.nbt.*;
 import net.minestom.server.MinecraftServer;
 import net.minestom.server.coordinate.Point;
@@ -19,15 +19,13 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 
-import static net.hollowcube.schem.util.CoordinateUtil.blockIndex;
-
 @SuppressWarnings("UnstableApiUsage")
 public record SpongeSchematic(
         CompoundBinaryTag metadata,
         Point size,
         Point offset,
         List<Block> blockPalette,
-        ByteArrayBinaryTag blockData,
+        BlockStorage blockStorage,
         List<String> biomePalette,
         ByteArrayBinaryTag biomeData,
         Int2ObjectMap<BlockEntityData> blockEntitiesByPos,
@@ -37,11 +35,28 @@ public record SpongeSchematic(
     public static final ByteArrayBinaryTag EMPTY_BYTE_ARRAY = ByteArrayBinaryTag.byteArrayBinaryTag();
     public static final Schematic EMPTY = new SpongeSchematic(
             CompoundBinaryTag.empty(), Vec.ZERO, Vec.ZERO,
-            List.of(), EMPTY_BYTE_ARRAY,
+            List.of(), BlockStorage.empty(),
             List.of(), EMPTY_BYTE_ARRAY,
             Int2ObjectMaps.emptyMap(), List.of()
     );
 
+    /**
+     * Creates a schematic from Sponge varint block data, which is decoded into a {@link BlockStorage}. An empty
+     * palette with empty data (eg an entities only schematic) has no block storage.
+     */
+    public SpongeSchematic(
+            CompoundBinaryTag metadata, Point size, Point offset,
+            List<Block> blockPalette, ByteArrayBinaryTag blockData,
+            List<String> biomePalette, ByteArrayBinaryTag biomeData,
+            Int2ObjectMap<BlockEntityData> blockEntitiesByPos, List<CompoundBinaryTag> entities
+    ) {
+        this(metadata, size, offset,
+                blockPalette, blockPalette.isEmpty() && blockData.size() == 0
+                        ? BlockStorage.empty() : BlockStorage.fromVarInts(size, blockPalette.size(), blockData),
+                biomePalette, biomeData,
+                blockEntitiesByPos, entities);
+    }
+
     public SpongeSchematic {
         blockPalette = List.copyOf(blockPalette);
         biomePalette = List.copyOf(biomePalette);
@@ -52,12 +67,15 @@ public record SpongeSchematic(
     @Override
     public void forEachBlock(Rotation rotation, BlockConsumer consumer) {
         final BlockManager BLOCK_MANAGER = MinecraftServer.getBlockManager();
-        var reader = new VarIntReader(this.blockData);
+        var palette = new Block[blockPalette.size()];
+        for (int i = 0; i < palette.length; i++)
+            palette[i] = CoordinateUtil.rotateBlock(blockPalette.get(i), rotation);
+        int index = 0;
         for (int y = 0; y < size().y(); y++) {
             for (int z = 0; z < size().z(); z++) {
-                for (int x = 0; x < size().x(); x++) {
-                    var block = blockPalette.get(reader.next());
-                    var blockEntity = blockEntitiesByPos.get(blockIndex(size, x, y, z));
+                for (int x = 0; x < size().x(); x++, index++) {
+                    var block = palette[blockStorage.get(index)];
+                    var blockEntity = blockEntitiesByPos.get(index);
                     if (blockEntity != null) {
                         // Lower case the IDs always to prevent parse errors, especially for legacy names like 'Beacon'
                         var lowerKey = blockEntity.id().toLowerCase(Locale.ROOT);
@@ -65,9 +83,26 @@ public record SpongeSchematic(
                                 .withNbt(blockEntity.data());
                     }
 
+                    consumer.accept(CoordinateUtil.rotatePos(offset.add(x, y, z), rotation), block);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forEachBlockState(Rotation rotation, IntBlockConsumer consumer) {
+        var palette = CoordinateUtil.rotatePalette(blockPalette.toArray(Block[]::new), rotation);
+        int sizeX = size.blockX(), sizeY = size.blockY(), sizeZ = size.blockZ();
+        int offsetX = offset.blockX(), offsetY = offset.blockY(), offsetZ = offset.blockZ();
+        int index = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++, index++) {
+                    int posX = offsetX + x, posZ = offsetZ + z;
                     consumer.accept(
-                            CoordinateUtil.rotatePos(offset.add(x, y, z), rotation),
-                            CoordinateUtil.rotateBlock(block, rotation)
+                            CoordinateUtil.rotateX(posX, posZ, rotation), offsetY + y,
+                            CoordinateUtil.rotateZ(posX, posZ, rotation),
+                            palette[blockStorage.get(index)]
                     );
                 }
             }
@@ -100,7 +135,16 @@ public record SpongeSchematic(
 
     @Override
     public boolean hasBlockData() {
-        return (blockData.size() > 0 && !blockPalette.isEmpty()) || !blockEntitiesByPos.isEmpty();
+        return (blockStorage.volume() > 0 && !blockPalette.isEmpty()) || !blockEntitiesByPos.isEmpty();
+    }
+
+    /**
+     * Returns the block data encoded as Sponge varints. The encoding is computed from {@link #blockStorage()} on
+     * first use and cached.
+     */
+    @Override
+    public ByteArrayBinaryTag blockData() {
+        return blockStorage.toVarInts();
     }
 
     @Override
@@ -1,30 +1,39 @@
 package net.hollowcube.schem;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.hollowcube.schem.util.CoordinateUtil;
 import net.hollowcube.schem.util.BlockConsumer;
+import net.hollowcube.schem.util.IntBlockConsumer;
 import net.hollowcube.schem.util.Rotation;
 import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.BlockVec;
 import net.minestom.server.coordinate.Point;
 import net.minestom.server.instance.block.Block;
 import net.minestom.server.instance.block.BlockManager;
-import net.minestom.server.network.NetworkBuffer;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
-@SuppressWarnings("UnstableApiUsage")
-public record Structure(
-        Point size,
-        List<BlockInfo> blocks,
-        List<Block[]> palettes,
-        List<CompoundBinaryTag> entities
-) implements Schematic {
+/**
+ * <p>A vanilla structure block template. Blocks are stored as a sparse list, any position not listed is air.</p>
+ *
+ * <p>The block list is kept in columns of primitives rather than as {@link BlockInfo} records: each block is a
+ * position (as an XZY index into the structure, the same as {@link BlockStorage}) and a palette index, with block
+ * entities in a sparse side table. Blocks keep their order from the file, which vanilla uses as placement order.
+ * Use {@link #builder(Point, List)} to create a structure without allocating records.</p>
+ *
+ * <p>The dense views required by {@link Schematic} ({@link #blockPalette()}, {@link #blockStorage()},
+ * {@link #blockData()} and {@link #blockEntities()}) and the position lookup are computed on first use and cached,
+ * so the palette arrays should not be mutated.</p>
+ */
+public final class Structure implements Schematic {
 
     public record BlockInfo(
             Point pos,
@@ -33,18 +42,148 @@ public record Structure(
     ) {
     }
 
+    public static Builder builder(Point size, List<Block[]> palettes) {
+        return new Builder(size, palettes);
+    }
+
+    private final Point size;
+    private final int sizeX, sizeZ;
+    private final int[] positions;
+    private final int[] paletteIndices;
+    // Block slots with a block entity (ascending) and their data
+    private final int[] blockEntitySlots;
+    private final BlockEntityData[] blockEntityData;
+    private final List<Block[]> palettes;
+    private final List<CompoundBinaryTag> entities;
+
+    // Lazily computed views, see the class doc
+    private volatile @Nullable List<Block> blockPalette = null;
+    private volatile @Nullable BlockStorage blockStorage = null;
+    private volatile @Nullable List<BlockEntityData> blockEntities = null;
+    // Packed (position << 32 | slot), sorted by position with the last block at each position
+    private volatile long @Nullable [] lookup = null;
+
+    public Structure(Point size, List<BlockInfo> blocks, List<Block[]> palettes, List<CompoundBinaryTag> entities) {
+        this(fromBlockInfos(size, palettes, blocks).entities(entities));
+    }
+
+    private Structure(Builder builder) {
+        this.size = builder.size;
+        this.sizeX = size.blockX();
+        this.sizeZ = size.blockZ();
+        this.positions = builder.positions.toIntArray();
+        this.paletteIndices = builder.paletteIndices.toIntArray();
+        this.blockEntitySlots = builder.blockEntitySlots.toIntArray();
+        this.blockEntityData = builder.blockEntityData.toArray(BlockEntityData[]::new);
+        this.palettes = List.copyOf(builder.palettes);
+        this.entities = List.copyOf(builder.entities);
+    }
+
+    @Override
+    public Point size() {
+        return size;
+    }
+
+    public List<Block[]> palettes() {
+        return palettes;
+    }
+
+    @Override
+    public List<CompoundBinaryTag> entities() {
+        return entities;
+    }
+
+    public int blockCount() {
+        return positions.length;
+    }
+
+    /**
+     * Returns a view of the blocks in file order. Records are created as elements are read, prefer the indexed
+     * accessors (eg {@link #paletteIndex(int)}) in hot paths.
+     */
+    public List<BlockInfo> blocks() {
+        return new AbstractList<>() {
+            @Override
+            public BlockInfo get(int slot) {
+                return block(slot);
+            }
+
+            @Override
+            public int size() {
+                return positions.length;
+            }
+        };
+    }
+
+    public BlockInfo block(int slot) {
+        return new BlockInfo(position(slot), paletteIndex(slot), blockEntity(slot));
+    }
+
+    public Point position(int slot) {
+        int index = positions[slot];
+        return new BlockVec(index % sizeX, index / (sizeX * sizeZ), (index / sizeX) % sizeZ);
+    }
+
+    public int paletteIndex(int slot) {
+        return paletteIndices[slot];
+    }
+
+    public @Nullable BlockEntityData blockEntity(int slot) {
+        Objects.checkIndex(slot, positions.length);
+        int i = Arrays.binarySearch(blockEntitySlots, slot);
+        return i >= 0 ? blockEntityData[i] : null;
+    }
+
+    /**
+     * Returns the block at the given position relative to the structure origin, or null if there is none (the
+     * position is air). If a position is listed more than once the last block wins, same as when placing.
+     */
+    public @Nullable BlockInfo blockAt(int x, int y, int z) {
+        int slot = slotAt(x, y, z);
+        return slot != -1 ? block(slot) : null;
+    }
+
+    /**
+     * Returns the palette index at the given position relative to the structure origin, or -1 if there is none.
+     */
+    public int paletteIndexAt(int x, int y, int z) {
+        int slot = slotAt(x, y, z);
+        return slot != -1 ? paletteIndices[slot] : -1;
+    }
+
     @Override
     public void forEachBlock(Rotation rotation, BlockConsumer consumer) {
         final BlockManager BLOCK_MANAGER = MinecraftServer.getBlockManager();
-        for(BlockInfo blockInfo : this.blocks) {
-            Block block = this.palettes.getFirst()[blockInfo.paletteIndex];
-            if(blockInfo.blockEntity != null) {
-                block = block.withHandler(BLOCK_MANAGER.getHandlerOrDummy(blockInfo.blockEntity.id().toLowerCase(Locale.ROOT)))
-                        .withNbt(blockInfo.blockEntity.data());
+        var palette = this.palettes.getFirst().clone();
+        for (int i = 0; i < palette.length; i++)
+            palette[i] = CoordinateUtil.rotateBlock(palette[i], rotation);
+        int nextBlockEntity = 0;
+        for (int slot = 0; slot < positions.length; slot++) {
+            Block block = palette[paletteIndices[slot]];
+            if (nextBlockEntity < blockEntitySlots.length && blockEntitySlots[nextBlockEntity] == slot) {
+                var blockEntity = blockEntityData[nextBlockEntity++];
+                block = block.withHandler(BLOCK_MANAGER.getHandlerOrDummy(blockEntity.id().toLowerCase(Locale.ROOT)))
+                        .withNbt(blockEntity.data());
             }
+            int index = positions[slot];
+            int x = index % sizeX, y = index / (sizeX * sizeZ), z = (index / sizeX) % sizeZ;
+            consumer.accept(new BlockVec(
+                    CoordinateUtil.rotateX(x, z, rotation), y,
+                    CoordinateUtil.rotateZ(x, z, rotation)
+            ), block);
+        }
+    }
+
+    @Override
+    public void forEachBlockState(Rotation rotation, IntBlockConsumer consumer) {
+        var palette = CoordinateUtil.rotatePalette(this.palettes.getFirst(), rotation);
+        for (int slot = 0; slot < positions.length; slot++) {
+            int index = positions[slot];
+            int x = index % sizeX, y = index / (sizeX * sizeZ), z = (index / sizeX) % sizeZ;
             consumer.accept(
-                    CoordinateUtil.rotatePos(blockInfo.pos, rotation),
-                    CoordinateUtil.rotateBlock(block, rotation)
+                    CoordinateUtil.rotateX(x, z, rotation), y,
+                    CoordinateUtil.rotateZ(x, z, rotation),
+                    palette[paletteIndices[slot]]
             );
         }
     }
@@ -56,56 +195,169 @@ public record Structure(
 
     @Override
     public List<Block> blockPalette() {
+        var result = blockPalette;
+        if (result != null) return result;
+
         // All of this logic just ensures the palette contains air.
-        int airIndex = -1;
         var palette = palettes.getFirst();
-        for (int i = 0; i < palette.length; i++) {
-            if (palette[i] == Block.AIR) {
-                airIndex = i;
-                break;
-            }
-        }
-        if (airIndex == -1) {
+        if (airIndex(palette) == palette.length) {
             palette = Arrays.copyOf(palette, palette.length + 1);
             palette[palette.length - 1] = Block.AIR;
         }
-        return List.of(palette);
+        return blockPalette = List.of(palette);
     }
 
     @Override
-    public ByteArrayBinaryTag blockData() {
-        // Figure out the index of the air entry, or add one at the end
-        int airIndex = -1;
-        var palette = palettes.getFirst();
-        for (int i = 0; i < palette.length; i++) {
-            if (palette[i] == Block.AIR) {
-                airIndex = i;
-                break;
-            }
+    public BlockStorage blockStorage() {
+        var result = blockStorage;
+        if (result != null) return result;
+
+        // Any position without a block is air, which is added to the end of the palette if missing
+        int airIndex = airIndex(palettes.getFirst());
+        var storage = BlockStorage.builder(size, blockPalette().size());
+        if (airIndex != 0) {
+            for (int index = 0; index < sizeX * size.blockY() * sizeZ; index++) storage.set(index, airIndex);
         }
-        if (airIndex == -1) airIndex = palette.length;
-
-        // Create the palette array
-        var indices = new int[size.blockX() * size.blockY() * size.blockZ()];
-        Arrays.fill(indices, airIndex);
-        for (var bi : blocks) {
-            var index = (int) (bi.pos.blockX() + bi.pos.blockZ() * size.x() + bi.pos.blockY() * size.x() * size.z());
-            indices[index] = bi.paletteIndex;
+        for (int slot = 0; slot < positions.length; slot++) {
+            storage.set(positions[slot], paletteIndices[slot]);
         }
-        return ByteArrayBinaryTag.byteArrayBinaryTag(NetworkBuffer.makeArray(buffer -> {
-            for (var paletteIndex : indices) {
-                buffer.write(NetworkBuffer.VAR_INT, paletteIndex);
-            }
-        }));
+        return blockStorage = storage.build();
+    }
+
+    /**
+     * Returns the block data encoded as Sponge varints. The encoding is computed from {@link #blockStorage()} on
+     * first use and cached.
+     */
+    @Override
+    public ByteArrayBinaryTag blockData() {
+        return blockStorage().toVarInts();
     }
 
     @Override
     public List<BlockEntityData> blockEntities() {
-        var blockEntities = new ArrayList<BlockEntityData>();
-        for (var blockInfo : blocks) {
-            if (blockInfo.blockEntity == null) continue;
-            blockEntities.add(blockInfo.blockEntity);
+        var result = blockEntities;
+        if (result != null) return result;
+        return blockEntities = List.of(blockEntityData);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Structure other)) return false;
+        return size.equals(other.size) && Arrays.equals(positions, other.positions)
+                && Arrays.equals(paletteIndices, other.paletteIndices)
+                && Arrays.equals(blockEntitySlots, other.blockEntitySlots)
+                && Arrays.equals(blockEntityData, other.blockEntityData)
+                && palettes.equals(other.palettes) && entities.equals(other.entities);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(size, palettes, entities);
+        result = 31 * result + Arrays.hashCode(positions);
+        result = 31 * result + Arrays.hashCode(paletteIndices);
+        return 31 * result + Arrays.hashCode(blockEntityData);
+    }
+
+    @Override
+    public String toString() {
+        return "Structure[size=" + size + ", blocks=" + positions.length + ", palettes=" + palettes.size()
+                + ", entities=" + entities.size() + "]";
+    }
+
+    private int slotAt(int x, int y, int z) {
+        if (x < 0 || x >= sizeX || y < 0 || y >= size.blockY() || z < 0 || z >= sizeZ) return -1;
+        var lookup = lookup();
+        long key = (long) (x + z * sizeX + y * sizeX * sizeZ) << 32;
+        // Search for the first entry at or after the position
+        int i = Arrays.binarySearch(lookup, key);
+        if (i < 0) i = -i - 1;
+        if (i == lookup.length || (lookup[i] & 0xFFFFFFFF00000000L) != key) return -1;
+        return (int) lookup[i];
+    }
+
+    private long[] lookup() {
+        var result = lookup;
+        if (result != null) return result;
+
+        var packed = new long[positions.length];
+        for (int slot = 0; slot < positions.length; slot++)
+            packed[slot] = ((long) positions[slot] << 32) | slot;
+        Arrays.sort(packed);
+
+        // Keep only the last slot at each position
+        int length = 0;
+        for (int i = 0; i < packed.length; i++) {
+            if (i + 1 < packed.length && (packed[i + 1] >>> 32) == (packed[i] >>> 32)) continue;
+            packed[length++] = packed[i];
+        }
+        return lookup = length == packed.length ? packed : Arrays.copyOf(packed, length);
+    }
+
+    /**
+     * Returns the index of air in the palette, or the palette length if it does not contain air.
+     */
+    private static int airIndex(Block[] palette) {
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] == Block.AIR) return i;
+        }
+        return palette.length;
+    }
+
+    private static Builder fromBlockInfos(Point size, List<Block[]> palettes, List<BlockInfo> blocks) {
+        var builder = new Builder(size, palettes);
+        for (var block : blocks) {
+            var pos = block.pos();
+            builder.block(pos.blockX(), pos.blockY(), pos.blockZ(), block.paletteIndex(), block.blockEntity());
+        }
+        return builder;
+    }
+
+    /**
+     * Accumulates the blocks of a structure in columnar form.
+     */
+    public static final class Builder {
+        private final Point size;
+        private final int sizeX, sizeY, sizeZ;
+        private final List<Block[]> palettes;
+        private final IntArrayList positions = new IntArrayList();
+        private final IntArrayList paletteIndices = new IntArrayList();
+        private final IntArrayList blockEntitySlots = new IntArrayList();
+        private final List<BlockEntityData> blockEntityData = new ArrayList<>();
+        private final List<CompoundBinaryTag> entities = new ArrayList<>();
+
+        private Builder(Point size, List<Block[]> palettes) {
+            this.size = size;
+            this.sizeX = size.blockX();
+            this.sizeY = size.blockY();
+            this.sizeZ = size.blockZ();
+            this.palettes = palettes;
+        }
+
+        public Builder block(int x, int y, int z, int paletteIndex, @Nullable BlockEntityData blockEntity) {
+            if (x < 0 || x >= sizeX || y < 0 || y >= sizeY || z < 0 || z >= sizeZ)
+                throw new IndexOutOfBoundsException("block " + x + ", " + y + ", " + z + " is outside of " + size);
+            if (blockEntity != null) {
+                blockEntitySlots.add(positions.size());
+                blockEntityData.add(blockEntity);
+            }
+            positions.add(x + z * sizeX + y * sizeX * sizeZ);
+            paletteIndices.add(paletteIndex);
+            return this;
+        }
+
+        public Builder entity(CompoundBinaryTag entity) {
+            entities.add(entity);
+            return this;
+        }
+
+        public Builder entities(List<CompoundBinaryTag> entities) {
+            this.entities.addAll(entities);
+            return this;
+        }
+
+        public Structure build() {
+            return new Structure(this);
         }
-        return Collections.synchronizedList(blockEntities);
     }
 }
@@ -0,0 +1,175 @@
+package net.hollowcube.schem.builder;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.builder.UnboundedSchematicBuilder.Section;
+import net.kyori.adventure.nbt.BinaryTag;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.block.Block;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.hollowcube.schem.builder.UnboundedSchematicBuilder.sectionKey;
+import static net.hollowcube.schem.builder.UnboundedSchematicBuilder.sectionX;
+import static net.hollowcube.schem.builder.UnboundedSchematicBuilder.sectionY;
+import static net.hollowcube.schem.builder.UnboundedSchematicBuilder.sectionZ;
+
+/**
+ * <p>An unbounded builder which may be written from many threads at once.</p>
+ *
+ * <p>Blocks are stored in the same sparse sections as {@link UnboundedSchematicBuilder}. The section map is split
+ * into lock stripes and each section is locked on its own, so threads writing different areas (eg one thread per
+ * chunk) do not contend. Each section keeps its own small palette of state ids, and its block entities by position,
+ * which are merged once in {@link #build()}.</p>
+ *
+ * <p>{@link #build()} must only be called once every write has completed.</p>
+ */
+final class ConcurrentSchematicBuilder implements SchematicBuilder {
+    private static final int STRIPES = 64;
+
+    private final Map<String, BinaryTag> metadata = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private final Long2ObjectMap<Section>[] stripes = new Long2ObjectMap[STRIPES];
+
+    private volatile Point offset = Vec.ZERO;
+
+    ConcurrentSchematicBuilder() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Long2ObjectOpenHashMap<>();
+    }
+
+    @Override
+    public void metadata(String key, BinaryTag value) {
+        metadata.put(key, value);
+    }
+
+    @Override
+    public void block(Point point, Block block) {
+        block(point.blockX(), point.blockY(), point.blockZ(), block);
+    }
+
+    @Override
+    public void block(int x, int y, int z, Block block) {
+        Objects.requireNonNull(block);
+        var section = section(sectionKey(x >> 4, y >> 4, z >> 4));
+        synchronized (section) {
+            section.set((x & 15) | ((z & 15) << 4) | ((y & 15) << 8), block);
+        }
+    }
+
+    @Override
+    public void section(int sectionX, int sectionY, int sectionZ, int[] stateIds) {
+        if (stateIds.length != 16 * 16 * 16)
+            throw new IllegalArgumentException("section must have 4096 states, got " + stateIds.length);
+
+        // Validate every state before taking the lock, so a bad id leaves the section untouched
+        int lastStateId = -1;
+        for (int stateId : stateIds) {
+            if (stateId == lastStateId) continue;
+            Objects.requireNonNull(Block.fromStateId(stateId), "unknown state id");
+            lastStateId = stateId;
+        }
+
+        var section = section(sectionKey(sectionX, sectionY, sectionZ));
+        synchronized (section) {
+            for (int index = 0; index < stateIds.length; index++)
+                section.set(index, stateIds[index]);
+        }
+    }
+
+    @Override
+    public void offset(Point point) {
+        this.offset = point;
+    }
+
+    @Override
+    public Schematic build() {
+        var sections = new Long2ObjectOpenHashMap<Section>();
+        for (var stripe : stripes) {
+            synchronized (stripe) {
+                sections.putAll(stripe);
+            }
+        }
+        if (sections.isEmpty()) {
+            return Schematic.empty();
+        }
+
+        var metadata = CompoundBinaryTag.builder();
+        this.metadata.forEach(metadata::put);
+
+        int[] bounds = bounds(sections);
+        var min = new Vec(bounds[0], bounds[1], bounds[2]);
+        var max = new Vec(bounds[3], bounds[4], bounds[5]);
+        // This means the offset its always from the min corner, not zero
+        return UnboundedSchematicBuilder.build(metadata.build(), offset.add(min), sections, min, max);
+    }
+
+    private Section section(long key) {
+        var stripe = stripes[(int) (mix(key) & (STRIPES - 1))];
+        synchronized (stripe) {
+            var section = stripe.get(key);
+            if (section == null) {
+                section = new Section();
+                stripe.put(key, section);
+            }
+            return section;
+        }
+    }
+
+    /**
+     * Returns the exact bounds of the written blocks as {@code [minX, minY, minZ, maxX, maxY, maxZ]}. Only sections on
+     * the outside of the section bounds need to be scanned.
+     */
+    private static int[] bounds(Long2ObjectMap<Section> sections) {
+        int minSectionX = Integer.MAX_VALUE, minSectionY = Integer.MAX_VALUE, minSectionZ = Integer.MAX_VALUE;
+        int maxSectionX = Integer.MIN_VALUE, maxSectionY = Integer.MIN_VALUE, maxSectionZ = Integer.MIN_VALUE;
+        for (long key : sections.keySet()) {
+            minSectionX = Math.min(minSectionX, sectionX(key));
+            minSectionY = Math.min(minSectionY, sectionY(key));
+            minSectionZ = Math.min(minSectionZ, sectionZ(key));
+            maxSectionX = Math.max(maxSectionX, sectionX(key));
+            maxSectionY = Math.max(maxSectionY, sectionY(key));
+            maxSectionZ = Math.max(maxSectionZ, sectionZ(key));
+        }
+
+        var bounds = new int[]{
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE
+        };
+        for (var entry : sections.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            int sectionX = sectionX(key), sectionY = sectionY(key), sectionZ = sectionZ(key);
+            if (sectionX != minSectionX && sectionX != maxSectionX && sectionY != minSectionY
+                    && sectionY != maxSectionY && sectionZ != minSectionZ && sectionZ != maxSectionZ)
+                continue;
+
+            var section = entry.getValue();
+            for (int index = 0; index < 16 * 16 * 16; index++) {
+                if (section.get(index) == -1) continue;
+                int x = (sectionX << 4) + (index & 15);
+                int y = (sectionY << 4) + (index >> 8);
+                int z = (sectionZ << 4) + ((index >> 4) & 15);
+                bounds[0] = Math.min(bounds[0], x);
+                bounds[1] = Math.min(bounds[1], y);
+                bounds[2] = Math.min(bounds[2], z);
+                bounds[3] = Math.max(bounds[3], x);
+                bounds[4] = Math.max(bounds[4], y);
+                bounds[5] = Math.max(bounds[5], z);
+            }
+        }
+        return bounds;
+    }
+
+    private static long mix(long key) {
+        // Neighbouring sections differ only in their low bits, so spread them across the stripes
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,211 @@
+package net.hollowcube.schem.builder;
+
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.hollowcube.schem.BlockEntityData;
+import net.hollowcube.schem.BlockStorage;
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SpongeSchematic;
+import net.hollowcube.schem.util.CoordinateUtil;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.block.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Captures a region of an instance by reading the block palette of each chunk section directly.
+ *
+ * <p>Each chunk is read concurrently into its own packed storage with a local palette of state ids, and the chunks
+ * are then merged into a single {@link SpongeSchematic}. Only positions holding a block entity type are read back
+ * through {@link Chunk#getBlock(int, int, int)} to recover their handler and nbt.</p>
+ */
+final class InstanceCapture {
+    private final Instance instance;
+    private final int minX, minY, minZ, maxX, maxY, maxZ;
+    private final Vec size;
+
+    InstanceCapture(Instance instance, Point a, Point b) {
+        this.instance = instance;
+        var min = CoordinateUtil.min(a, b);
+        var max = CoordinateUtil.max(a, b);
+        this.minX = min.blockX();
+        this.minY = min.blockY();
+        this.minZ = min.blockZ();
+        this.maxX = max.blockX();
+        this.maxY = max.blockY();
+        this.maxZ = max.blockZ();
+        this.size = new Vec(maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1);
+    }
+
+    CompletableFuture<Schematic> capture(Executor executor) {
+        var futures = new ArrayList<CompletableFuture<ChunkCapture>>();
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                futures.add(instance.loadChunk(chunkX, chunkZ)
+                        .thenApplyAsync(this::captureChunk, executor));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> merge(futures.stream().map(CompletableFuture::join).toList()));
+    }
+
+    private ChunkCapture captureChunk(Chunk chunk) {
+        int fromX = Math.max(minX, chunk.getChunkX() << 4), toX = Math.min(maxX, (chunk.getChunkX() << 4) + 15);
+        int fromZ = Math.max(minZ, chunk.getChunkZ() << 4), toZ = Math.min(maxZ, (chunk.getChunkZ() << 4) + 15);
+        int width = toX - fromX + 1, length = toZ - fromZ + 1;
+        var capture = new ChunkCapture(fromX, fromZ, width, length, size.blockY());
+
+        synchronized (chunk) {
+            int minSection = chunk.getMinSection(), maxSection = chunk.getMaxSection();
+            for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+                // Sections outside the world are left as air (local index zero)
+                if (sectionY < minSection || sectionY >= maxSection) continue;
+                var palette = chunk.getSection(sectionY).blockPalette();
+
+                int fromY = Math.max(minY, sectionY << 4), toY = Math.min(maxY, (sectionY << 4) + 15);
+                for (int y = fromY; y <= toY; y++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        for (int x = fromX; x <= toX; x++) {
+                            int stateId = palette.get(x & 15, y & 15, z & 15);
+                            capture.set(x - fromX, y - minY, z - fromZ, stateId);
+                        }
+                    }
+                }
+            }
+
+            // Recover handlers and nbt for any block entities. Like the builders, only blocks with a handler are kept.
+            for (int i = 0; i < capture.blockEntityPositions.size(); i++) {
+                int index = capture.blockEntityPositions.getInt(i);
+                int x = fromX + index % width, z = fromZ + (index / width) % length, y = minY + index / (width * length);
+                var block = chunk.getBlock(x, y, z, Block.Getter.Condition.CACHED);
+                if (block == null || block.handler() == null) continue;
+                capture.blockEntities.add(block);
+                capture.blockEntityIndices.add(index);
+            }
+        }
+        return capture;
+    }
+
+    private Schematic merge(List<ChunkCapture> chunks) {
+        // State id -> palette index, air is always index zero
+        Int2IntMap paletteIndices = new Int2IntOpenHashMap();
+        paletteIndices.defaultReturnValue(-1);
+        var palette = new ArrayList<Block>();
+        paletteIndices.put(Block.AIR.stateId(), 0);
+        palette.add(Block.AIR);
+
+        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>();
+        int sizeX = size.blockX(), sizeY = size.blockY(), sizeZ = size.blockZ();
+        var blockStorage = BlockStorage.builder(size, 1);
+        for (var chunk : chunks) {
+            // Remap the chunk's local palette into the schematic palette
+            var remap = new int[chunk.palette.size()];
+            for (int i = 0; i < remap.length; i++) {
+                int stateId = chunk.palette.getInt(i);
+                int paletteIndex = paletteIndices.get(stateId);
+                if (paletteIndex == -1) {
+                    paletteIndex = palette.size();
+                    paletteIndices.put(stateId, paletteIndex);
+                    palette.add(Objects.requireNonNull(Block.fromStateId(stateId)));
+                }
+                remap[i] = paletteIndex;
+            }
+
+            var storage = chunk.storage.build();
+            int offsetX = chunk.fromX - minX, offsetZ = chunk.fromZ - minZ;
+            int index = 0;
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < chunk.length; z++) {
+                    int rowIndex = offsetX + (offsetZ + z) * sizeX + y * sizeX * sizeZ;
+                    for (int x = 0; x < chunk.width; x++) {
+                        int paletteIndex = remap[storage.get(index++)];
+                        if (paletteIndex != 0) blockStorage.set(rowIndex + x, paletteIndex);
+                    }
+                }
+            }
+
+            for (int i = 0; i < chunk.blockEntities.size(); i++) {
+                var block = chunk.blockEntities.get(i);
+                int localIndex = chunk.blockEntityIndices.getInt(i);
+                int x = offsetX + localIndex % chunk.width;
+                int z = offsetZ + (localIndex / chunk.width) % chunk.length;
+                int y = localIndex / (chunk.width * chunk.length);
+
+                var blockEntityId = Objects.requireNonNull(block.handler()).getKey().asString();
+                var blockEntityData = Objects.requireNonNullElse(block.nbt(), CompoundBinaryTag.empty());
+                blockEntities.put(x + z * sizeX + y * sizeX * sizeZ,
+                        new BlockEntityData(blockEntityId, new Vec(x, y, z), blockEntityData));
+            }
+        }
+
+        return new SpongeSchematic(
+                CompoundBinaryTag.empty(), size, Vec.ZERO,
+                palette, blockStorage.build(),
+                List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
+                blockEntities, List.of()
+        );
+    }
+
+    /**
+     * The captured part of a single chunk column, indexed in x, then z, then y order relative to its own bounds.
+     */
+    private static final class ChunkCapture {
+        final int fromX, fromZ, width, length;
+        final BlockStorage.Builder storage;
+
+        // Local index -> state id, and the reverse. Air is local index zero.
+        final IntArrayList palette = new IntArrayList();
+        private final Int2IntMap paletteIndices = new Int2IntOpenHashMap();
+        private int lastStateId = Block.AIR.stateId(), lastIndex = 0;
+
+        final IntArrayList blockEntityPositions = new IntArrayList();
+        final List<Block> blockEntities = new ArrayList<>();
+        final IntArrayList blockEntityIndices = new IntArrayList();
+        // Local index -> whether the state is a block entity type
+        private final BooleanArrayList blockEntityStates = new BooleanArrayList();
+
+        ChunkCapture(int fromX, int fromZ, int width, int length, int height) {
+            this.fromX = fromX;
+            this.fromZ = fromZ;
+            this.width = width;
+            this.length = length;
+            this.storage = BlockStorage.builder(new Vec(width, height, length), 1);
+            paletteIndices.defaultReturnValue(-1);
+            localIndex(Block.AIR.stateId());
+        }
+
+        void set(int x, int y, int z, int stateId) {
+            int localIndex = stateId == lastStateId ? lastIndex : localIndex(stateId);
+            lastStateId = stateId;
+            lastIndex = localIndex;
+            if (localIndex == 0) return;
+
+            int index = x + z * width + y * width * length;
+            storage.set(index, localIndex);
+            if (blockEntityStates.getBoolean(localIndex)) blockEntityPositions.add(index);
+        }
+
+        private int localIndex(int stateId) {
+            int localIndex = paletteIndices.get(stateId);
+            if (localIndex != -1) return localIndex;
+
+            localIndex = palette.size();
+            paletteIndices.put(stateId, localIndex);
+            palette.add(stateId);
+            var block = Block.fromStateId(stateId);
+            blockEntityStates.add(block != null && block.registry().isBlockEntity());
+            return localIndex;
+        }
+    }
+}
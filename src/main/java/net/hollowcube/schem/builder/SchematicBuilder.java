@@ -4,8 +4,14 @@ import net.hollowcube.schem.Schematic;
 import net.kyori.adventure.nbt.BinaryTag;
 import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.Instance;
 import net.minestom.server.instance.block.Block;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
 public interface SchematicBuilder {
 
     static SchematicBuilder builder(Point size) {
@@ -16,6 +22,36 @@ public interface SchematicBuilder {
         return new UnboundedSchematicBuilder();
     }
 
+    /**
+     * Returns an unbounded builder which may be written from many threads at once, for example one per chunk.
+     * {@link #build()} must only be called after every write has completed.
+     */
+    static SchematicBuilder concurrent() {
+        return new ConcurrentSchematicBuilder();
+    }
+
+    /**
+     * Captures the box between {@code min} and {@code max} (inclusive) of the instance as a schematic, loading any
+     * chunks it covers. Chunks are read concurrently on the common fork join pool.
+     *
+     * @see #capture(Instance, Point, Point, Executor)
+     */
+    static CompletableFuture<Schematic> capture(Instance instance, Point min, Point max) {
+        return capture(instance, min, max, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * <p>Captures the box between {@code min} and {@code max} (inclusive) of the instance as a schematic, loading any
+     * chunks it covers.</p>
+     *
+     * <p>Blocks are read directly from each chunk section palette, one task per chunk on the given executor. The
+     * result is a {@link net.hollowcube.schem.SpongeSchematic} with its origin at the min corner. Blocks with a
+     * handler are captured as block entities.</p>
+     */
+    static CompletableFuture<Schematic> capture(Instance instance, Point min, Point max, Executor executor) {
+        return new InstanceCapture(instance, min, max).capture(executor);
+    }
+
     void metadata(String key, BinaryTag value);
 
     void block(Point point, Block block);
@@ -24,6 +60,58 @@ public interface SchematicBuilder {
         block(new Vec(x, y, z), block);
     }
 
+    /**
+     * Sets every block in the box between {@code min} and {@code max} (inclusive) to the given block.
+     */
+    default void fill(Point min, Point max, Block block) {
+        for (int y = Math.min(min.blockY(), max.blockY()); y <= Math.max(min.blockY(), max.blockY()); y++) {
+            for (int z = Math.min(min.blockZ(), max.blockZ()); z <= Math.max(min.blockZ(), max.blockZ()); z++) {
+                for (int x = Math.min(min.blockX(), max.blockX()); x <= Math.max(min.blockX(), max.blockX()); x++)
+                    block(x, y, z, block);
+            }
+        }
+    }
+
+    /**
+     * Sets a whole 16x16x16 chunk section from its block state ids, indexed as {@code (y << 8) | (z << 4) | x}
+     * (the same order as a Minestom section palette). Section coordinates are block coordinates divided by 16.
+     *
+     * <p>State ids carry no handler or nbt, so any block entities in the section are removed.</p>
+     */
+    default void section(int sectionX, int sectionY, int sectionZ, int[] stateIds) {
+        if (stateIds.length != 16 * 16 * 16)
+            throw new IllegalArgumentException("section must have 4096 states, got " + stateIds.length);
+        int baseX = sectionX << 4, baseY = sectionY << 4, baseZ = sectionZ << 4;
+        for (int index = 0; index < stateIds.length; index++) {
+            var block = Objects.requireNonNull(Block.fromStateId(stateIds[index]), "unknown state id");
+            block(baseX + (index & 15), baseY + (index >> 8), baseZ + ((index >> 4) & 15), block);
+        }
+    }
+
+    /**
+     * Sets every block in the box between {@code min} and {@code max} (inclusive) from its block state id, indexed
+     * in x, then z, then y order (the same order as a Sponge schematic).
+     *
+     * <p>State ids carry no handler or nbt, so any block entities in the box are removed.</p>
+     */
+    default void blocks(Point min, Point max, int[] stateIds) {
+        int minX = Math.min(min.blockX(), max.blockX()), minY = Math.min(min.blockY(), max.blockY()), minZ = Math.min(min.blockZ(), max.blockZ());
+        int width = Math.abs(max.blockX() - min.blockX()) + 1;
+        int height = Math.abs(max.blockY() - min.blockY()) + 1;
+        int length = Math.abs(max.blockZ() - min.blockZ()) + 1;
+        if (stateIds.length != width * height * length)
+            throw new IllegalArgumentException("expected " + (width * height * length) + " states, got " + stateIds.length);
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < length; z++) {
+                for (int x = 0; x < width; x++) {
+                    var block = Objects.requireNonNull(Block.fromStateId(stateIds[index++]), "unknown state id");
+                    block(minX + x, minY + y, minZ + z, block);
+                }
+            }
+        }
+    }
+
     void offset(Point point);
 
     default void offset(int x, int y, int z) {
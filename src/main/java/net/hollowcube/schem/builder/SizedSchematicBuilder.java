@@ -1,40 +1,46 @@
 package net.hollowcube.schem.builder;
 
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import net.hollowcube.schem.BlockEntityData;
+import net.hollowcube.schem.BlockStorage;
 import net.hollowcube.schem.Schematic;
 import net.hollowcube.schem.SpongeSchematic;
 import net.kyori.adventure.nbt.BinaryTag;
-import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
-import net.minestom.server.network.NetworkBuffer;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
-import static net.hollowcube.schem.util.CoordinateUtil.blockIndex;
-
-@SuppressWarnings("UnstableApiUsage")
 final class SizedSchematicBuilder implements SchematicBuilder {
     private final CompoundBinaryTag.Builder metadata = CompoundBinaryTag.builder();
     private final Int2ObjectMap<BlockEntityData> blockEntities = new Int2ObjectOpenHashMap<>();
-    private final IntList palette = new IntArrayList(1);
-    private final short[] blocks;
+    // Block state id -> palette index, and the reverse in insertion order
+    private final Int2IntMap paletteIndices = new Int2IntOpenHashMap();
+    private final IntList palette = new IntArrayList();
+    private final BlockStorage.Builder blocks;
     private final Point size;
+    private final int sizeX, sizeY, sizeZ;
 
     private Point offset = Vec.ZERO;
 
     SizedSchematicBuilder(Point size) {
-        palette.add(Block.AIR.stateId());
-        this.blocks = new short[size.blockX() * size.blockY() * size.blockZ()];
+        paletteIndices.defaultReturnValue(-1);
+        // Air is always palette index zero, so unset blocks are air
+        paletteIndex(Block.AIR.stateId());
+        this.blocks = BlockStorage.builder(size, 1);
         this.size = size;
+        this.sizeX = size.blockX();
+        this.sizeY = size.blockY();
+        this.sizeZ = size.blockZ();
     }
 
     @Override
@@ -49,21 +55,92 @@ final class SizedSchematicBuilder implements SchematicBuilder {
 
     @Override
     public void block(int x, int y, int z, Block block) {
-        var paletteIndex = palette.indexOf(block.stateId());
-        if (paletteIndex == -1) {
-            paletteIndex = palette.size();
-            palette.add(block.stateId());
+        x -= offset.blockX();
+        y -= offset.blockY();
+        z -= offset.blockZ();
+        int blockIndex = index(x, y, z);
+        blocks.set(blockIndex, paletteIndex(block.stateId()));
+        blockEntity(blockIndex, x, y, z, block);
+    }
+
+    @Override
+    public void fill(Point min, Point max, Block block) {
+        int minX = Math.min(min.blockX(), max.blockX()) - offset.blockX();
+        int minY = Math.min(min.blockY(), max.blockY()) - offset.blockY();
+        int minZ = Math.min(min.blockZ(), max.blockZ()) - offset.blockZ();
+        int maxX = Math.max(min.blockX(), max.blockX()) - offset.blockX();
+        int maxY = Math.max(min.blockY(), max.blockY()) - offset.blockY();
+        int maxZ = Math.max(min.blockZ(), max.blockZ()) - offset.blockZ();
+        checkBounds(minX, minY, minZ, maxX, maxY, maxZ);
+
+        int paletteIndex = paletteIndex(block.stateId());
+        boolean hasBlockEntity = block.handler() != null || !blockEntities.isEmpty();
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                int rowIndex = z * sizeX + y * sizeX * sizeZ;
+                for (int x = minX; x <= maxX; x++) {
+                    blocks.set(rowIndex + x, paletteIndex);
+                    if (hasBlockEntity) blockEntity(rowIndex + x, x, y, z, block);
+                }
+            }
         }
-        var relPos = new Vec(x, y, z).sub(offset);
-        var blockIndex = blockIndex(size, relPos);
-        blocks[blockIndex] = (short) paletteIndex;
+    }
 
-        var blockHandler = block.handler();
-        if (blockHandler != null) {
-            var blockEntityId = blockHandler.getKey().asString();
-            var blockEntityData = Objects.requireNonNullElse(block.nbt(), CompoundBinaryTag.empty());
-            blockEntities.put(blockIndex, new BlockEntityData(blockEntityId, relPos, blockEntityData));
+    @Override
+    public void section(int sectionX, int sectionY, int sectionZ, int[] stateIds) {
+        if (stateIds.length != 16 * 16 * 16)
+            throw new IllegalArgumentException("section must have 4096 states, got " + stateIds.length);
+        int baseX = (sectionX << 4) - offset.blockX();
+        int baseY = (sectionY << 4) - offset.blockY();
+        int baseZ = (sectionZ << 4) - offset.blockZ();
+        checkBounds(baseX, baseY, baseZ, baseX + 15, baseY + 15, baseZ + 15);
+
+        int lastStateId = -1, lastPaletteIndex = -1;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                int rowIndex = baseX + (baseZ + z) * sizeX + (baseY + y) * sizeX * sizeZ;
+                int sectionIndex = (y << 8) | (z << 4);
+                for (int x = 0; x < 16; x++) {
+                    int stateId = stateIds[sectionIndex + x];
+                    if (stateId != lastStateId) {
+                        lastPaletteIndex = paletteIndex(stateId);
+                        lastStateId = stateId;
+                    }
+                    blocks.set(rowIndex + x, lastPaletteIndex);
+                }
+            }
+        }
+        removeBlockEntities(baseX, baseY, baseZ, baseX + 15, baseY + 15, baseZ + 15);
+    }
+
+    @Override
+    public void blocks(Point min, Point max, int[] stateIds) {
+        int minX = Math.min(min.blockX(), max.blockX()) - offset.blockX();
+        int minY = Math.min(min.blockY(), max.blockY()) - offset.blockY();
+        int minZ = Math.min(min.blockZ(), max.blockZ()) - offset.blockZ();
+        int maxX = Math.max(min.blockX(), max.blockX()) - offset.blockX();
+        int maxY = Math.max(min.blockY(), max.blockY()) - offset.blockY();
+        int maxZ = Math.max(min.blockZ(), max.blockZ()) - offset.blockZ();
+        checkBounds(minX, minY, minZ, maxX, maxY, maxZ);
+        int volume = (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (stateIds.length != volume)
+            throw new IllegalArgumentException("expected " + volume + " states, got " + stateIds.length);
+
+        int index = 0, lastStateId = -1, lastPaletteIndex = -1;
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                int rowIndex = z * sizeX + y * sizeX * sizeZ;
+                for (int x = minX; x <= maxX; x++) {
+                    int stateId = stateIds[index++];
+                    if (stateId != lastStateId) {
+                        lastPaletteIndex = paletteIndex(stateId);
+                        lastStateId = stateId;
+                    }
+                    blocks.set(rowIndex + x, lastPaletteIndex);
+                }
+            }
         }
+        removeBlockEntities(minX, minY, minZ, maxX, maxY, maxZ);
     }
 
     @Override
@@ -74,18 +151,62 @@ final class SizedSchematicBuilder implements SchematicBuilder {
     @Override
     public Schematic build() {
         var paletteBlocks = new ArrayList<Block>(palette.size());
-        for (var stateId : palette) paletteBlocks.add(Block.fromStateId(stateId));
-
-        var blockData = ByteArrayBinaryTag.byteArrayBinaryTag(NetworkBuffer.makeArray(buffer -> {
-            for (var paletteIdx : blocks)
-                buffer.write(NetworkBuffer.VAR_INT, (int) paletteIdx);
-        }));
+        for (int i = 0; i < palette.size(); i++)
+            paletteBlocks.add(Block.fromStateId(palette.getInt(i)));
 
         return new SpongeSchematic(
                 metadata.build(), size, offset,
-                paletteBlocks, blockData,
+                paletteBlocks, blocks.build(),
                 List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
-                blockEntities, List.of()
+                // Copied since the builder may be written again after building
+                new Int2ObjectOpenHashMap<>(blockEntities), List.of()
         );
     }
+
+    private int paletteIndex(int stateId) {
+        int paletteIndex = paletteIndices.get(stateId);
+        if (paletteIndex == -1) {
+            if (Block.fromStateId(stateId) == null)
+                throw new IllegalArgumentException("unknown block state id: " + stateId);
+            paletteIndex = palette.size();
+            paletteIndices.put(stateId, paletteIndex);
+            palette.add(stateId);
+        }
+        return paletteIndex;
+    }
+
+    private int index(int x, int y, int z) {
+        Objects.checkIndex(x, sizeX);
+        Objects.checkIndex(y, sizeY);
+        Objects.checkIndex(z, sizeZ);
+        return x + z * sizeX + y * sizeX * sizeZ;
+    }
+
+    private void checkBounds(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (minX < 0 || minY < 0 || minZ < 0 || maxX >= sizeX || maxY >= sizeY || maxZ >= sizeZ) {
+            throw new IndexOutOfBoundsException(String.format("region (%d, %d, %d) to (%d, %d, %d) is outside of size %s",
+                    minX, minY, minZ, maxX, maxY, maxZ, size));
+        }
+    }
+
+    private void blockEntity(int blockIndex, int x, int y, int z, Block block) {
+        var blockHandler = block.handler();
+        if (blockHandler != null) {
+            var blockEntityId = blockHandler.getKey().asString();
+            var blockEntityData = Objects.requireNonNullElse(block.nbt(), CompoundBinaryTag.empty());
+            blockEntities.put(blockIndex, new BlockEntityData(blockEntityId, new Vec(x, y, z), blockEntityData));
+        } else {
+            blockEntities.remove(blockIndex);
+        }
+    }
+
+    private void removeBlockEntities(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (blockEntities.isEmpty()) return;
+        blockEntities.values().removeIf(blockEntity -> {
+            var pos = blockEntity.position();
+            return pos.blockX() >= minX && pos.blockX() <= maxX
+                    && pos.blockY() >= minY && pos.blockY() <= maxY
+                    && pos.blockZ() >= minZ && pos.blockZ() <= maxZ;
+        });
+    }
 }
@@ -3,30 +3,45 @@ package net.hollowcube.schem.builder;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.hollowcube.schem.BlockEntityData;
+import net.hollowcube.schem.BlockStorage;
 import net.hollowcube.schem.Schematic;
 import net.hollowcube.schem.SpongeSchematic;
-import net.hollowcube.schem.util.CoordinateUtil;
 import net.kyori.adventure.nbt.BinaryTag;
-import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static net.hollowcube.schem.util.CoordinateUtil.blockIndex;
 
+/**
+ * A builder which grows to fit the blocks written to it.
+ *
+ * <p>Blocks are stored in sparse 16x16x16 sections, each with its own small palette of state ids, so only the areas
+ * which have been written use any memory. Blocks with a handler are also kept by position in their section, and are
+ * dropped when that position is overwritten. This builder is not thread-safe.</p>
+ */
 public class UnboundedSchematicBuilder implements SchematicBuilder {
-    // Point -> Block, a missing value is air
-    private final Map<Point, Block> blockSet = new ConcurrentHashMap<>();
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+
     private final CompoundBinaryTag.Builder metadata = CompoundBinaryTag.builder();
 
+    private final Long2ObjectMap<Section> sections = new Long2ObjectOpenHashMap<>();
+    private long lastSectionKey = Long.MIN_VALUE;
+    private @Nullable Section lastSection = null;
+
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
     private Point offset = Vec.ZERO;
 
     @Override
@@ -36,7 +51,31 @@ public class UnboundedSchematicBuilder implements SchematicBuilder {
 
     @Override
     public void block(Point point, Block block) {
-        blockSet.put(CoordinateUtil.floor(point), Objects.requireNonNull(block));
+        block(point.blockX(), point.blockY(), point.blockZ(), block);
+    }
+
+    @Override
+    public void block(int x, int y, int z, Block block) {
+        Objects.requireNonNull(block);
+        long key = sectionKey(x >> 4, y >> 4, z >> 4);
+        var section = lastSection;
+        if (section == null || key != lastSectionKey) {
+            section = sections.get(key);
+            if (section == null) {
+                section = new Section();
+                sections.put(key, section);
+            }
+            lastSection = section;
+            lastSectionKey = key;
+        }
+        section.set((x & 15) | ((z & 15) << 4) | ((y & 15) << 8), block);
+
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
     }
 
     @Override
@@ -46,117 +85,172 @@ public class UnboundedSchematicBuilder implements SchematicBuilder {
 
     @Override
     public Schematic build() {
-        if (blockSet.isEmpty()) {
+        if (sections.isEmpty()) {
             return Schematic.empty();
         }
 
-        Point min = blockSet.keySet().stream().findFirst().get();
-        Point max = min;
-        for (Point point : blockSet.keySet()) {
-            min = CoordinateUtil.min(min, point);
-            max = CoordinateUtil.max(max, point);
-        }
+        var min = new Vec(minX, minY, minZ);
+        // This means the offset its always from the min corner, not zero
+        return build(metadata.build(), offset.add(min), sections, min, new Vec(maxX, maxY, maxZ));
+    }
 
+    /**
+     * Merges sparse sections into a schematic covering {@code min} to {@code max} (inclusive).
+     */
+    static Schematic build(
+            CompoundBinaryTag metadata, Point offset,
+            Long2ObjectMap<Section> sections,
+            Point min, Point max
+    ) {
+        int minX = min.blockX(), minY = min.blockY(), minZ = min.blockZ();
         var size = max.sub(min).add(1);
-        // This means the offset its always from the min corner, not zero
-        offset = offset.add(min);
-        var blockCount = size.blockX() * size.blockY() * size.blockZ();
+        int sizeX = size.blockX(), sizeZ = size.blockZ();
+        long volume = (long) sizeX * size.blockY() * sizeZ;
 
-        // Map of Block State -> Palette ID
-        Int2IntMap paletteMap = new Int2IntOpenHashMap();
+        // State id -> schematic palette index, assigned as states are found
+        Int2IntMap paletteIndices = new Int2IntOpenHashMap();
+        paletteIndices.defaultReturnValue(-1);
+        var palette = new ArrayList<Block>();
 
-        // We always keep air as palette block zero, since it is likely the vast
-        // majority of blocks, so we want to ensure that it is one byte.
-        if (blockSet.containsValue(Block.AIR)) {
-            paletteMap.put(Block.AIR.stateId(), 0);
+        // We always keep air as palette block zero, since it is likely the vast majority of blocks, so we want to
+        // ensure that it is one byte. It is also the value of any position which was never set.
+        long setCount = 0;
+        boolean hasAir = false;
+        int paletteHint = 1;
+        for (var section : sections.values()) {
+            setCount += section.count;
+            hasAir |= section.palette.contains(Block.AIR.stateId());
+            paletteHint = Math.max(paletteHint, section.palette.size());
+        }
+        if (hasAir || setCount < volume) {
+            palette.add(Block.AIR);
+            paletteIndices.put(Block.AIR.stateId(), 0);
         }
 
         var blockEntities = new Int2ObjectArrayMap<BlockEntityData>();
+        // The largest section palette is only a lower bound, the storage widens as the palette grows
+        var blockStorage = BlockStorage.builder(size, Math.min(paletteHint, 1 << BlockStorage.MAX_BITS_PER_ENTRY));
+        for (var entry : sections.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            var section = entry.getValue();
+            int baseX = sectionX(key) << 4, baseY = sectionY(key) << 4, baseZ = sectionZ(key) << 4;
 
-        // Write each block to the output buffer
-        // Initial buffer size assumes that we have a palette less than 127
-        // so each block is one byte. If the palette is larger, we will resize
-        var blockBytes = ByteBuffer.allocate(blockCount + 4);
-        for (int i = 0; i < blockCount; i++) {
-
-            // Resize array if it is too small
-            if (blockBytes.remaining() <= 3) {
-                byte[] oldBytes = blockBytes.array();
-                blockBytes = ByteBuffer.allocate(blockBytes.capacity() * 2);
-                blockBytes.put(oldBytes);
-            }
+            for (int index = 0; index < SECTION_VOLUME; index++) {
+                int stateId = section.get(index);
+                if (stateId == -1) continue;
 
-            int index = i, width = size.blockX(), length = size.blockZ();
-            int y = index / (width * length);
-            int remainder = index - (y * width * length);
-            int z = remainder / width;
-            int x = remainder - z * width;
-
-            // Write the block in XZY order
-            var blockPos = new Vec(x, y, z
-//                    (int) (i % size.blockX()),
-//                    (int) (i / (size.blockX() * size.blockZ())),
-//                    (int) ((i / size.blockX()) % size.blockZ())
-            ).add(min);
-            var block = blockSet.get(blockPos);
-
-            if (block == null) {
-                // Block not set, write an air value
-                writeVarInt(blockBytes, 0);
-                continue;
-            }
+                int paletteIndex = paletteIndices.get(stateId);
+                if (paletteIndex == -1) {
+                    paletteIndex = palette.size();
+                    paletteIndices.put(stateId, paletteIndex);
+                    palette.add(Objects.requireNonNull(Block.fromStateId(stateId), "unknown state id"));
+                }
 
-            // Write block palette index
-            int blockId;
-            if (!paletteMap.containsKey(block.stateId())) {
-                blockId = paletteMap.size();
-                paletteMap.put(block.stateId(), paletteMap.size());
-            } else {
-                blockId = paletteMap.get(block.stateId());
+                int x = baseX + (index & 15) - minX;
+                int y = baseY + (index >> 8) - minY;
+                int z = baseZ + ((index >> 4) & 15) - minZ;
+                int blockIndex = x + z * sizeX + y * sizeX * sizeZ;
+                blockStorage.set(blockIndex, paletteIndex);
             }
-            writeVarInt(blockBytes, blockId);
 
-            // Write block entity
-            var blockHandler = block.handler();
-            if (blockHandler != null) {
-                var blockEntityId = blockHandler.getKey().asString();
+            // Write block entities, which are only present at positions still holding their block
+            var sectionBlockEntities = section.blockEntities;
+            if (sectionBlockEntities == null) continue;
+            for (var blockEntity : sectionBlockEntities.int2ObjectEntrySet()) {
+                int index = blockEntity.getIntKey();
+                var block = blockEntity.getValue();
+                int x = baseX + (index & 15) - minX;
+                int y = baseY + (index >> 8) - minY;
+                int z = baseZ + ((index >> 4) & 15) - minZ;
+                var blockEntityId = Objects.requireNonNull(block.handler()).getKey().asString();
                 var blockEntityData = Objects.requireNonNullElse(block.nbt(), CompoundBinaryTag.empty());
-                blockEntities.put(blockIndex(size, x, y, z), new BlockEntityData(blockEntityId, new Vec(x, y, z), blockEntityData));
+                blockEntities.put(x + z * sizeX + y * sizeX * sizeZ,
+                        new BlockEntityData(blockEntityId, new Vec(x, y, z), blockEntityData));
             }
         }
 
-        var palette = new Block[paletteMap.size()];
-        for (var entry : paletteMap.int2IntEntrySet()) {
-            palette[entry.getIntValue()] = Block.fromStateId(entry.getIntKey());
-        }
-
-        var out = new byte[blockBytes.position()];
-        blockBytes.flip().get(out);
-
         return new SpongeSchematic(
-                metadata.build(), size, offset,
-                List.of(palette), ByteArrayBinaryTag.byteArrayBinaryTag(out),
+                metadata, size, offset,
+                palette, blockStorage.build(),
                 List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
                 blockEntities, List.of()
         );
     }
 
-    private static void writeVarInt(ByteBuffer buf, int value) {
-        if ((value & (0xFFFFFFFF << 7)) == 0) {
-            buf.put((byte) value);
-        } else if ((value & (0xFFFFFFFF << 14)) == 0) {
-            buf.putShort((short) ((value & 0x7F | 0x80) << 8 | (value >>> 7)));
-        } else if ((value & (0xFFFFFFFF << 21)) == 0) {
-            buf.put((byte) (value & 0x7F | 0x80));
-            buf.put((byte) ((value >>> 7) & 0x7F | 0x80));
-            buf.put((byte) (value >>> 14));
-        } else if ((value & (0xFFFFFFFF << 28)) == 0) {
-            buf.putInt((value & 0x7F | 0x80) << 24 | (((value >>> 7) & 0x7F | 0x80) << 16)
-                    | ((value >>> 14) & 0x7F | 0x80) << 8 | (value >>> 21));
-        } else {
-            buf.putInt((value & 0x7F | 0x80) << 24 | ((value >>> 7) & 0x7F | 0x80) << 16
-                    | ((value >>> 14) & 0x7F | 0x80) << 8 | ((value >>> 21) & 0x7F | 0x80));
-            buf.put((byte) (value >>> 28));
+    static long sectionKey(int sectionX, int sectionY, int sectionZ) {
+        return ((long) (sectionX & 0x3FFFFF) << 42) | ((long) (sectionZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFF);
+    }
+
+    static int sectionX(long key) {
+        return (int) (key >> 42);
+    }
+
+    static int sectionY(long key) {
+        return (int) (key << 44 >> 44);
+    }
+
+    static int sectionZ(long key) {
+        return (int) (key << 22 >> 42);
+    }
+
+    /**
+     * A 16x16x16 section of packed indices into a local palette of state ids. Local index zero is unset. Blocks with
+     * a handler are kept by section index until their position is overwritten.
+     */
+    static final class Section {
+        private static final Vec SIZE = new Vec(16, 16, 16);
+        // Above this many entries the local palette is also indexed by a hash map
+        private static final int LINEAR_PALETTE_SIZE = 16;
+
+        private final BlockStorage.Builder indices = BlockStorage.builder(SIZE, 1);
+        final IntArrayList palette = new IntArrayList(4);
+        private @Nullable Int2IntMap paletteMap = null;
+        @Nullable Int2ObjectMap<Block> blockEntities = null;
+        int count = 0;
+
+        Section() {
+            palette.add(-1);
+        }
+
+        int get(int index) {
+            return palette.getInt(indices.get(index));
+        }
+
+        void set(int index, Block block) {
+            set(index, block.stateId());
+            if (block.handler() != null) {
+                if (blockEntities == null) blockEntities = new Int2ObjectOpenHashMap<>();
+                blockEntities.put(index, block);
+            }
+        }
+
+        void set(int index, int stateId) {
+            int localIndex = localIndex(stateId);
+            if (indices.get(index) == 0) count++;
+            indices.set(index, localIndex);
+            if (blockEntities != null) blockEntities.remove(index);
+        }
+
+        private int localIndex(int stateId) {
+            var map = paletteMap;
+            if (map != null) {
+                int localIndex = map.get(stateId);
+                if (localIndex != -1) return localIndex;
+            } else {
+                int localIndex = palette.indexOf(stateId);
+                if (localIndex != -1) return localIndex;
+            }
+
+            int localIndex = palette.size();
+            palette.add(stateId);
+            if (map != null) {
+                map.put(stateId, localIndex);
+            } else if (palette.size() > LINEAR_PALETTE_SIZE) {
+                map = paletteMap = new Int2IntOpenHashMap(palette.size() * 2);
+                map.defaultReturnValue(-1);
+                for (int i = 1; i < palette.size(); i++) map.put(palette.getInt(i), i);
+            }
+            return localIndex;
         }
     }
 }
@@ -0,0 +1,249 @@
+package net.hollowcube.schem.catalog;
+
+import net.hollowcube.schem.LitematicaSchematic;
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SpongeSchematic;
+import net.hollowcube.schem.Structure;
+import net.hollowcube.schem.reader.SchematicReader;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>A thread-safe cache of schematics loaded from files, bounded by the estimated heap size of the decoded
+ * schematics. The least recently used entries are evicted once the budget is exceeded.</p>
+ *
+ * <p>Every lookup checks the size and last modified time of the file. If either changed the file is reloaded,
+ * unless {@code verifyContent} is enabled and the content hash is unchanged (eg the file was only touched or
+ * copied). Concurrent lookups of the same file while it is loading share a single load.</p>
+ */
+public final class SchematicCache {
+    // Rough per-object costs used by the weight estimate
+    private static final long BASE_WEIGHT = 256;
+    private static final long BLOCK_ENTITY_WEIGHT = 256;
+    private static final long ENTITY_WEIGHT = 512;
+    private static final long PALETTE_ENTRY_WEIGHT = 16;
+
+    public record Stats(long hits, long misses, long loads, long loadFailures, long evictions, long weight, int size) {
+    }
+
+    private record CacheEntry(Schematic schematic, long weight, long fileSize, long lastModified, long contentHash) {
+    }
+
+    private final SchematicReader reader;
+    private final long maxWeight;
+    private final boolean verifyContent;
+
+    // Access ordered, guarded by itself
+    private final LinkedHashMap<Path, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+
+    private final Map<Path, CompletableFuture<CacheEntry>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SchematicCache(long maxWeight) {
+        this(SchematicReader.detecting(), maxWeight, false);
+    }
+
+    /**
+     * @param maxWeight     The maximum estimated heap size in bytes of all cached schematics
+     * @param verifyContent Whether to compare a content hash before reloading a file whose size or time changed
+     */
+    public SchematicCache(SchematicReader reader, long maxWeight, boolean verifyContent) {
+        if (maxWeight < 1) throw new IllegalArgumentException("max weight must be positive: " + maxWeight);
+        this.reader = reader;
+        this.maxWeight = maxWeight;
+        this.verifyContent = verifyContent;
+    }
+
+    /**
+     * Returns the schematic at the given path, loading it if it is not cached or the file has changed.
+     */
+    public Schematic get(Path path) throws IOException {
+        var key = path.toAbsolutePath().normalize();
+        var attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        long fileSize = attributes.size(), lastModified = attributes.lastModifiedTime().toMillis();
+
+        CacheEntry stale;
+        synchronized (entries) {
+            stale = entries.get(key);
+        }
+        if (stale != null && stale.fileSize() == fileSize && stale.lastModified() == lastModified) {
+            hits.increment();
+            return stale.schematic();
+        }
+
+        misses.increment();
+        var future = new CompletableFuture<CacheEntry>();
+        var existing = loading.putIfAbsent(key, future);
+        if (existing != null) return join(existing).schematic();
+
+        try {
+            // Another thread may have finished loading the file between the first check and claiming the load
+            CacheEntry current;
+            synchronized (entries) {
+                current = entries.get(key);
+            }
+            var entry = current != null && current.fileSize() == fileSize && current.lastModified() == lastModified
+                    ? current : load(key, future, current, fileSize, lastModified);
+            future.complete(entry);
+            return entry.schematic();
+        } catch (Throwable e) {
+            // Complete on any failure (including errors such as running out of memory) so waiting callers do not hang
+            loadFailures.increment();
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns the cached schematic for the given path without checking the file or loading it.
+     */
+    public @Nullable Schematic getIfPresent(Path path) {
+        synchronized (entries) {
+            var entry = entries.get(path.toAbsolutePath().normalize());
+            return entry != null ? entry.schematic() : null;
+        }
+    }
+
+    /**
+     * Removes the cached schematic for the given path. A load of the path which is in progress still completes for
+     * its callers, but its result is not cached.
+     */
+    public void invalidate(Path path) {
+        var key = path.toAbsolutePath().normalize();
+        synchronized (entries) {
+            var removed = entries.remove(key);
+            if (removed != null) weight -= removed.weight();
+            loading.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+            loading.clear();
+        }
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), loads.sum(), loadFailures.sum(), evictions.sum(), weight, entries.size());
+        }
+    }
+
+    /**
+     * Estimates the heap size in bytes of a decoded schematic.
+     */
+    public static long estimateWeight(Schematic schematic) {
+        long weight = BASE_WEIGHT;
+        if (schematic instanceof LitematicaSchematic litematica) {
+            for (var region : litematica.regions().values()) weight += estimateWeight(region);
+            return weight;
+        }
+
+        var size = schematic.size();
+        long volume = (long) size.blockX() * size.blockY() * size.blockZ();
+        if (schematic instanceof SpongeSchematic sponge) {
+            var storage = sponge.blockStorage();
+            int valuesPerLong = storage.bitsPerEntry() == 0 ? 0 : 64 / storage.bitsPerEntry();
+            weight += valuesPerLong == 0 ? 0 : (volume + valuesPerLong - 1) / valuesPerLong * Long.BYTES;
+            weight += sponge.biomeData().size();
+        } else if (schematic instanceof Structure structure) {
+            // Position and palette index columns, plus the position lookup
+            weight += (long) structure.blockCount() * (Integer.BYTES * 2 + Long.BYTES);
+        } else {
+            // Other formats are not packed, so assume an int per block
+            weight += volume * Integer.BYTES;
+        }
+        weight += schematic.blockPalette().size() * PALETTE_ENTRY_WEIGHT;
+        weight += schematic.blockEntities().size() * BLOCK_ENTITY_WEIGHT;
+        weight += schematic.entities().size() * ENTITY_WEIGHT;
+        return weight;
+    }
+
+    private CacheEntry load(
+            Path key, CompletableFuture<CacheEntry> future,
+            @Nullable CacheEntry stale, long fileSize, long lastModified
+    ) throws IOException {
+        long contentHash = verifyContent ? hash(key) : 0;
+        if (stale != null && verifyContent && stale.fileSize() == fileSize && stale.contentHash() == contentHash) {
+            // Only the timestamp changed, so keep the decoded schematic
+            var refreshed = new CacheEntry(stale.schematic(), stale.weight(), fileSize, lastModified, contentHash);
+            put(key, future, refreshed);
+            return refreshed;
+        }
+
+        loads.increment();
+        var schematic = reader.read(key);
+        var entry = new CacheEntry(schematic, estimateWeight(schematic), fileSize, lastModified, contentHash);
+        put(key, future, entry);
+        return entry;
+    }
+
+    private void put(Path key, CompletableFuture<CacheEntry> future, CacheEntry entry) {
+        synchronized (entries) {
+            // The path was invalidated while it was loading, so the result may already be stale
+            if (loading.get(key) != future) return;
+
+            var previous = entries.put(key, entry);
+            if (previous != null) weight -= previous.weight();
+            weight += entry.weight();
+
+            // Evict least recently used entries, but always keep the newest even if it alone is over budget
+            var iterator = entries.entrySet().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                var eldest = iterator.next();
+                if (eldest.getKey().equals(key)) continue;
+                weight -= eldest.getValue().weight();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static long hash(Path path) throws IOException {
+        var crc = new CRC32C();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ); var arena = Arena.ofConfined()) {
+            var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            // Hash in chunks since a single ByteBuffer view is limited to 2gb
+            for (long offset = 0; offset < mapped.byteSize(); offset += Integer.MAX_VALUE) {
+                long length = Math.min(Integer.MAX_VALUE, mapped.byteSize() - offset);
+                crc.update(mapped.asSlice(offset, length).asByteBuffer());
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static CacheEntry join(CompletableFuture<CacheEntry> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+}
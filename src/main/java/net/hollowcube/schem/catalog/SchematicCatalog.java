@@ -0,0 +1,378 @@
+package net.hollowcube.schem.catalog;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.hollowcube.schem.AxiomBlueprint;
+import net.hollowcube.schem.SchematicHeader;
+import net.hollowcube.schem.reader.SchematicReader;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * <p>An index of the schematics in a directory, persisted to a compact binary file so that listing and filtering
+ * does not require reading every schematic.</p>
+ *
+ * <p>Each file is identified by its path (relative to the directory), size and last modified time. On
+ * {@link #refresh()} only new or changed files have their header read (see {@link SchematicReader#readHeader(Path)}),
+ * and removed files are dropped. Queries are answered entirely from memory.</p>
+ *
+ * <p>Files which cannot be read as a schematic are kept in the catalog with {@link SchematicHeader.Format#UNKNOWN},
+ * so they are not retried until they change.</p>
+ */
+public final class SchematicCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(SchematicCatalog.class);
+
+    private static final int MAGIC_NUMBER = 0x5343_4154; // SCAT
+    private static final int INDEX_VERSION = 2;
+
+    public static final Set<String> DEFAULT_EXTENSIONS = Set.of("schem", "schematic", "nbt", "litematic", "bp");
+
+    /**
+     * A single schematic in the catalog.
+     *
+     * @param path       The path relative to the catalog directory, always with forward slashes
+     * @param blockTypes The distinct block keys (eg {@code minecraft:stone}) in the palette, if the format has one
+     */
+    public record Entry(
+            String path,
+            long fileSize,
+            long lastModified,
+            SchematicHeader.Format format,
+            @Nullable String name,
+            @Nullable String author,
+            @Nullable Instant createdAt,
+            Point size,
+            Set<String> blockTypes
+    ) {
+        public Entry {
+            blockTypes = Set.copyOf(blockTypes);
+        }
+
+        public boolean contains(Block block) {
+            return blockTypes.contains(block.key().asString());
+        }
+
+        public long volume() {
+            return (long) size.blockX() * size.blockY() * size.blockZ();
+        }
+    }
+
+    /**
+     * Opens the catalog for {@code directory}, loading any existing index from {@code indexFile}. The catalog is not
+     * refreshed, so call {@link #refresh()} to pick up changes since the index was written.
+     */
+    public static SchematicCatalog open(Path directory, Path indexFile) throws IOException {
+        return open(directory, indexFile, DEFAULT_EXTENSIONS);
+    }
+
+    /**
+     * Opens the catalog, only including files with one of the given (lower case) extensions.
+     */
+    public static SchematicCatalog open(Path directory, Path indexFile, Set<String> extensions) throws IOException {
+        var catalog = new SchematicCatalog(directory, indexFile, Set.copyOf(extensions));
+        catalog.load();
+        return catalog;
+    }
+
+    private final Path directory;
+    private final Path indexFile;
+    private final Set<String> extensions;
+
+    // Immutable snapshots, replaced as a whole on refresh
+    private volatile Map<String, Entry> entries = Map.of();
+    private volatile Map<String, List<Entry>> entriesByBlock = Map.of();
+
+    private SchematicCatalog(Path directory, Path indexFile, Set<String> extensions) {
+        this.directory = directory;
+        this.indexFile = indexFile;
+        this.extensions = extensions;
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    public @Nullable Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public List<Entry> query(Predicate<Entry> predicate) {
+        var result = new ArrayList<Entry>();
+        for (var entry : entries.values()) {
+            if (predicate.test(entry)) result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Returns every schematic whose palette contains the given block type, using the inverted block index.
+     */
+    public List<Entry> containing(Block block) {
+        return entriesByBlock.getOrDefault(block.key().asString(), List.of());
+    }
+
+    /**
+     * Re-scans the directory, reading the header of any new or changed file on the common pool, and then saves the
+     * index if anything changed.
+     *
+     * @return true if the catalog changed
+     */
+    public boolean refresh() throws IOException {
+        return refresh(ForkJoinPool.commonPool());
+    }
+
+    public synchronized boolean refresh(Executor executor) throws IOException {
+        var previous = entries;
+        var next = new HashMap<String, Entry>();
+        var pending = new ArrayList<CompletableFuture<Entry>>();
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                if (!isSchematicFile(file)) continue;
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; // Deleted while scanning
+                }
+                if (!attributes.isRegularFile()) continue;
+
+                var relative = relativePath(file);
+                long fileSize = attributes.size(), lastModified = attributes.lastModifiedTime().toMillis();
+                var existing = previous.get(relative);
+                if (existing != null && existing.fileSize() == fileSize && existing.lastModified() == lastModified) {
+                    next.put(relative, existing);
+                } else {
+                    pending.add(CompletableFuture.supplyAsync(() -> readEntry(file, relative, fileSize, lastModified), executor));
+                }
+            }
+        }
+
+        for (var future : pending) {
+            var entry = future.join();
+            next.put(entry.path(), entry);
+        }
+
+        boolean changed = !pending.isEmpty() || next.size() != previous.size();
+        if (changed) {
+            publish(next);
+            save();
+        }
+        return changed;
+    }
+
+    /**
+     * Writes the index file. The file is written to a temporary sibling and then moved into place, so a crash never
+     * leaves a partial index.
+     */
+    public synchronized void save() throws IOException {
+        var snapshot = entries;
+
+        // Block keys are shared between most schematics, so they are written once and referenced by index
+        Object2IntMap<String> blockIds = new Object2IntOpenHashMap<>();
+        var blockKeys = new ArrayList<String>();
+        for (var entry : snapshot.values()) {
+            for (var key : entry.blockTypes()) {
+                if (blockIds.containsKey(key)) continue;
+                blockIds.put(key, blockKeys.size());
+                blockKeys.add(key);
+            }
+        }
+
+        var parent = indexFile.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        var tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(INDEX_VERSION);
+
+            out.writeInt(blockKeys.size());
+            for (var key : blockKeys) out.writeUTF(key);
+
+            out.writeInt(snapshot.size());
+            for (var entry : snapshot.values()) {
+                out.writeUTF(entry.path());
+                out.writeLong(entry.fileSize());
+                out.writeLong(entry.lastModified());
+                // By name, so that adding or reordering formats does not invalidate the index
+                out.writeUTF(entry.format().name());
+                writeNullableString(out, entry.name());
+                writeNullableString(out, entry.author());
+                out.writeLong(entry.createdAt() != null ? entry.createdAt().toEpochMilli() : Long.MIN_VALUE);
+                out.writeInt(entry.size().blockX());
+                out.writeInt(entry.size().blockY());
+                out.writeInt(entry.size().blockZ());
+                out.writeInt(entry.blockTypes().size());
+                for (var key : entry.blockTypes()) writeVarInt(out, blockIds.getInt(key));
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(indexFile)) return;
+
+        var loaded = new HashMap<String, Entry>();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC_NUMBER || in.readInt() != INDEX_VERSION) {
+                logger.warn("ignoring incompatible schematic catalog index {}", indexFile);
+                return;
+            }
+
+            var blockKeys = new String[in.readInt()];
+            for (int i = 0; i < blockKeys.length; i++) blockKeys[i] = in.readUTF();
+
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                var path = in.readUTF();
+                long fileSize = in.readLong();
+                long lastModified = in.readLong();
+                var format = readFormat(in.readUTF());
+                var name = readNullableString(in);
+                var author = readNullableString(in);
+                long createdAt = in.readLong();
+                var size = new Vec(in.readInt(), in.readInt(), in.readInt());
+                var blockTypes = new String[in.readInt()];
+                for (int j = 0; j < blockTypes.length; j++) blockTypes[j] = blockKeys[readVarInt(in)];
+
+                // Formats unknown to this version are left out, so they are read again on the next refresh
+                if (format == null) continue;
+                loaded.put(path, new Entry(
+                        path, fileSize, lastModified, format, name, author,
+                        createdAt == Long.MIN_VALUE ? null : Instant.ofEpochMilli(createdAt),
+                        size, Set.of(blockTypes)
+                ));
+            }
+        } catch (IOException | RuntimeException e) {
+            // A corrupt index is only a cache, so it is rebuilt on the next refresh
+            logger.warn("failed to read schematic catalog index {}: {}", indexFile, e.toString());
+            return;
+        }
+        publish(loaded);
+    }
+
+    private static SchematicHeader.@Nullable Format readFormat(String name) {
+        try {
+            return SchematicHeader.Format.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Entry readEntry(Path file, String relative, long fileSize, long lastModified) {
+        try {
+            var header = SchematicReader.detecting().readHeader(file);
+            var size = header.size();
+            var blockTypes = new TreeSet<String>();
+            if (header.format() == SchematicHeader.Format.AXIOM) {
+                // Blueprint headers have neither a size nor a palette, both are only known from the block data. The
+                // section palettes are used directly so that the blueprint is never flattened.
+                var schematic = SchematicReader.detecting().read(file);
+                size = schematic.size();
+                if (schematic instanceof AxiomBlueprint blueprint) {
+                    for (var section : blueprint.sections()) {
+                        for (var block : section.palette()) blockTypes.add(block.key().asString());
+                    }
+                } else {
+                    for (var block : schematic.blockPalette()) blockTypes.add(block.key().asString());
+                }
+            } else {
+                for (var block : header.blockPalette()) blockTypes.add(block.key().asString());
+            }
+            return new Entry(
+                    relative, fileSize, lastModified, header.format(),
+                    header.name(), header.author(), header.createdAt(),
+                    size, blockTypes
+            );
+        } catch (Exception e) {
+            logger.debug("failed to read schematic header {}: {}", file, e.toString());
+            return new Entry(
+                    relative, fileSize, lastModified, SchematicHeader.Format.UNKNOWN,
+                    null, null, null, Vec.ZERO, Set.of()
+            );
+        }
+    }
+
+    private void publish(Map<String, Entry> next) {
+        var byBlock = new HashMap<String, List<Entry>>();
+        for (var entry : next.values()) {
+            for (var key : entry.blockTypes())
+                byBlock.computeIfAbsent(key, ignored -> new ArrayList<>()).add(entry);
+        }
+        byBlock.replaceAll((key, list) -> List.copyOf(list));
+
+        this.entriesByBlock = Map.copyOf(byBlock);
+        this.entries = Map.copyOf(next);
+    }
+
+    private boolean isSchematicFile(Path file) {
+        var fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot != -1 && extensions.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private String relativePath(Path file) {
+        var relative = directory.relativize(file);
+        var builder = new StringBuilder();
+        for (var part : relative) {
+            if (!builder.isEmpty()) builder.append('/');
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+
+    private static void writeNullableString(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static @Nullable String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) return result;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@NotNullByDefault
+package net.hollowcube.schem.catalog;
+
+import org.jetbrains.annotations.NotNullByDefault;
\ No newline at end of file
@@ -0,0 +1,175 @@
+package net.hollowcube.schem.paste;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.hollowcube.schem.AxiomBlueprint;
+import net.hollowcube.schem.BlockStorage;
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SpongeSchematic;
+import net.hollowcube.schem.paste.SectionSchematicPaster.ColumnBuffer;
+import net.hollowcube.schem.paste.SectionSchematicPaster.ColumnCollector;
+import net.hollowcube.schem.util.CoordinateUtil;
+import net.hollowcube.schem.util.Rotation;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Splits the destination area into chunk columns, and builds and applies each column's sections concurrently.
+ *
+ * <p>Sponge schematics are read with random access from their {@link BlockStorage}, so each task reads only the
+ * blocks which land in its own chunks. Other schematics are collected serially and then applied in parallel.</p>
+ *
+ * <p>Without an executor, each paste runs on its own virtual thread per task executor, which is shut down once the
+ * paste completes.</p>
+ */
+final class ParallelSchematicPaster implements SchematicPaster {
+    private final @Nullable Executor executor;
+    private final int parallelism;
+
+    ParallelSchematicPaster(@Nullable Executor executor, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public CompletableFuture<Void> paste(Instance instance, Schematic schematic, Point origin, Rotation rotation) {
+        if (executor != null) return paste(executor, instance, schematic, origin, rotation);
+
+        var virtualExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            return paste(virtualExecutor, instance, schematic, origin, rotation)
+                    .whenComplete((ignored, error) -> virtualExecutor.shutdown());
+        } catch (RuntimeException e) {
+            virtualExecutor.shutdown();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Void> paste(
+            Executor executor, Instance instance,
+            Schematic schematic, Point origin, Rotation rotation
+    ) {
+        final List<CompletableFuture<Void>> futures;
+        if (schematic instanceof SpongeSchematic sponge) {
+            futures = pasteRandomAccess(executor, instance, sponge, origin, rotation);
+        } else {
+            futures = pasteCollected(executor, instance, schematic, origin, rotation);
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenRun(() -> SectionSchematicPaster.placeBlockEntities(instance, schematic, origin, rotation));
+    }
+
+    private List<CompletableFuture<Void>> pasteRandomAccess(Executor executor, Instance instance, SpongeSchematic schematic, Point origin, Rotation rotation) {
+        var storage = schematic.blockStorage();
+        var size = schematic.size();
+        var offset = schematic.offset();
+        if (storage.volume() == 0) return List.of();
+
+        // Destination bounds, relative to the origin
+        var first = CoordinateUtil.rotatePos(offset, rotation);
+        var last = CoordinateUtil.rotatePos(offset.add(size).sub(1), rotation);
+        var min = CoordinateUtil.min(first, last).add(origin);
+        var max = CoordinateUtil.max(first, last).add(origin);
+
+        var chunks = new LongArrayList();
+        for (int chunkX = min.blockX() >> 4; chunkX <= max.blockX() >> 4; chunkX++) {
+            for (int chunkZ = min.blockZ() >> 4; chunkZ <= max.blockZ() >> 4; chunkZ++)
+                chunks.add(packChunk(chunkX, chunkZ));
+        }
+
+        var palette = CoordinateUtil.rotatePalette(schematic.blockPalette().toArray(Block[]::new), rotation);
+        var region = new Region(storage, palette, offset, origin, min, max, inverse(rotation));
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var stripe : stripes(chunks)) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                var columnFutures = new ArrayList<CompletableFuture<Void>>(stripe.size());
+                for (int i = 0; i < stripe.size(); i++) {
+                    var column = region.build(stripe.getLong(i));
+                    columnFutures.add(instance.loadChunk(column.chunkX, column.chunkZ)
+                            .thenAccept(chunk -> column.apply(instance, chunk)));
+                }
+                return CompletableFuture.allOf(columnFutures.toArray(CompletableFuture[]::new));
+            }, executor).thenCompose(future -> future));
+        }
+        return futures;
+    }
+
+    private List<CompletableFuture<Void>> pasteCollected(Executor executor, Instance instance, Schematic schematic, Point origin, Rotation rotation) {
+        var collector = new ColumnCollector(origin);
+        if (schematic instanceof AxiomBlueprint blueprint && rotation == Rotation.NONE
+                && SectionSchematicPaster.isSectionAligned(origin)) {
+            collector.sections(blueprint);
+        } else {
+            schematic.forEachBlockState(rotation, collector);
+        }
+
+        var futures = new ArrayList<CompletableFuture<Void>>(collector.columns.size());
+        for (var column : collector.columns.values()) {
+            futures.add(instance.loadChunk(column.chunkX, column.chunkZ)
+                    .thenAcceptAsync(chunk -> column.apply(instance, chunk), executor));
+        }
+        return futures;
+    }
+
+    private List<LongList> stripes(LongList chunks) {
+        int count = Math.min(parallelism, chunks.size());
+        var stripes = new ArrayList<LongList>(count);
+        for (int i = 0; i < count; i++) stripes.add(new LongArrayList(chunks.size() / count + 1));
+        // Interleave so that each stripe gets chunks from across the whole area
+        for (int i = 0; i < chunks.size(); i++) stripes.get(i % count).add(chunks.getLong(i));
+        return stripes;
+    }
+
+    private static long packChunk(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static Rotation inverse(Rotation rotation) {
+        return Rotation.values()[(4 - rotation.ordinal()) % 4];
+    }
+
+    /**
+     * The destination region of a rotated schematic. Any destination block can be mapped back to its index in the
+     * schematic storage by undoing the rotation.
+     */
+    private record Region(
+            BlockStorage storage, int[] palette,
+            Point offset, Point origin,
+            Point min, Point max,
+            Rotation inverse
+    ) {
+
+        ColumnBuffer build(long chunk) {
+            int chunkX = (int) (chunk >> 32), chunkZ = (int) chunk;
+            var column = new ColumnBuffer(chunkX, chunkZ);
+
+            int minX = Math.max(min.blockX(), chunkX << 4), maxX = Math.min(max.blockX(), (chunkX << 4) + 15);
+            int minZ = Math.max(min.blockZ(), chunkZ << 4), maxZ = Math.min(max.blockZ(), (chunkZ << 4) + 15);
+            int sizeX = storage.sizeX(), sizeZ = storage.sizeZ();
+            int originX = origin.blockX(), originY = origin.blockY(), originZ = origin.blockZ();
+            int offsetX = offset.blockX(), offsetY = offset.blockY(), offsetZ = offset.blockZ();
+            for (int y = min.blockY(); y <= max.blockY(); y++) {
+                int localY = y - originY - offsetY;
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        int relX = x - originX, relZ = z - originZ;
+                        int localX = CoordinateUtil.rotateX(relX, relZ, inverse) - offsetX;
+                        int localZ = CoordinateUtil.rotateZ(relX, relZ, inverse) - offsetZ;
+                        int index = localX + localZ * sizeX + localY * sizeX * sizeZ;
+                        column.set(x & 15, y, z & 15, palette[storage.get(index)]);
+                    }
+                }
+            }
+            return column;
+        }
+    }
+}
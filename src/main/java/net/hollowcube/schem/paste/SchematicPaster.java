@@ -0,0 +1,60 @@
+package net.hollowcube.schem.paste;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.util.Rotation;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.Instance;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Places schematics into an instance by writing directly into the block palette of each chunk section, rather
+ * than going through a {@link net.minestom.server.instance.batch.RelativeBlockBatch}.</p>
+ *
+ * <p>Every block in the schematic is placed, including air. Block entities are placed with
+ * {@link Instance#setBlock(Point, net.minestom.server.instance.block.Block)} once all sections have been written,
+ * so their handlers are notified as usual. No other block updates are triggered.</p>
+ */
+public interface SchematicPaster {
+
+    static SchematicPaster sections() {
+        return new SectionSchematicPaster();
+    }
+
+    /**
+     * Returns a paster which builds and applies chunks concurrently on virtual threads, with one task per available
+     * processor.
+     */
+    static SchematicPaster parallel() {
+        return parallel(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns a paster which builds and applies chunks concurrently on virtual threads, split into at most
+     * {@code parallelism} tasks. Each paste gets its own executor, which is shut down once the paste completes.
+     */
+    static SchematicPaster parallel(int parallelism) {
+        return new ParallelSchematicPaster(null, parallelism);
+    }
+
+    /**
+     * Returns a paster which builds and applies chunks concurrently, split into at most {@code parallelism} tasks
+     * on the given executor (for example a {@link java.util.concurrent.ForkJoinPool}).
+     */
+    static SchematicPaster parallel(Executor executor, int parallelism) {
+        return new ParallelSchematicPaster(executor, parallelism);
+    }
+
+    default CompletableFuture<Void> paste(Instance instance, Schematic schematic, Point origin) {
+        return paste(instance, schematic, origin, Rotation.NONE);
+    }
+
+    /**
+     * Pastes the schematic into the instance, loading any chunks it covers.
+     *
+     * @return A future completed once every block (and block entity) has been placed
+     */
+    CompletableFuture<Void> paste(Instance instance, Schematic schematic, Point origin, Rotation rotation);
+
+}
@@ -0,0 +1,246 @@
+package net.hollowcube.schem.paste;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.hollowcube.schem.AxiomBlueprint;
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.util.CoordinateUtil;
+import net.hollowcube.schem.util.IntBlockConsumer;
+import net.hollowcube.schem.util.Rotation;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.CoordConversion;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+final class SectionSchematicPaster implements SchematicPaster {
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+    private static final int UNSET = -1;
+
+    @Override
+    public CompletableFuture<Void> paste(Instance instance, Schematic schematic, Point origin, Rotation rotation) {
+        var collector = new ColumnCollector(origin);
+        if (schematic instanceof AxiomBlueprint blueprint && rotation == Rotation.NONE && isSectionAligned(origin)) {
+            collector.sections(blueprint);
+        } else {
+            schematic.forEachBlockState(rotation, collector);
+        }
+
+        var futures = new ArrayList<CompletableFuture<?>>(collector.columns.size());
+        for (var column : collector.columns.values()) {
+            futures.add(instance.loadChunk(column.chunkX, column.chunkZ)
+                    .thenAccept(chunk -> column.apply(instance, chunk)));
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenRun(() -> placeBlockEntities(instance, schematic, origin, rotation));
+    }
+
+    /**
+     * Block entities are placed through the instance so that handlers are notified and the chunk tracks them.
+     */
+    static void placeBlockEntities(Instance instance, Schematic schematic, Point origin, Rotation rotation) {
+        // Check first, since for some formats the offset is only known once the blocks have been flattened
+        var blockEntities = schematic.blockEntities();
+        if (blockEntities.isEmpty()) return;
+
+        var blockManager = MinecraftServer.getBlockManager();
+        var offset = schematic.offset();
+        for (var blockEntity : blockEntities) {
+            var pos = offset.add(blockEntity.position());
+            int x = CoordinateUtil.rotateX(pos.blockX(), pos.blockZ(), rotation) + origin.blockX();
+            int y = pos.blockY() + origin.blockY();
+            int z = CoordinateUtil.rotateZ(pos.blockX(), pos.blockZ(), rotation) + origin.blockZ();
+
+            var block = instance.getBlock(x, y, z, Block.Getter.Condition.TYPE);
+            if (block == null || block.isAir()) continue;
+            // Lower case the IDs always to prevent parse errors, especially for legacy names like 'Beacon'
+            var lowerKey = blockEntity.id().toLowerCase(Locale.ROOT);
+            instance.setBlock(x, y, z, block.withHandler(blockManager.getHandlerOrDummy(lowerKey))
+                    .withNbt(blockEntity.data()));
+        }
+    }
+
+    /**
+     * Returns true if the origin is on a section boundary, so that blueprint sections line up with chunk sections.
+     */
+    static boolean isSectionAligned(Point origin) {
+        return (origin.blockX() & 15) == 0 && (origin.blockY() & 15) == 0 && (origin.blockZ() & 15) == 0;
+    }
+
+    static int sectionIndex(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    /**
+     * Groups blocks by chunk column, remembering the last column since schematics iterate along x first.
+     */
+    static final class ColumnCollector implements IntBlockConsumer {
+        final Long2ObjectMap<ColumnBuffer> columns = new Long2ObjectOpenHashMap<>();
+        private final int originX, originY, originZ;
+
+        private long lastKey = Long.MIN_VALUE;
+        private @Nullable ColumnBuffer last = null;
+
+        ColumnCollector(Point origin) {
+            this.originX = origin.blockX();
+            this.originY = origin.blockY();
+            this.originZ = origin.blockZ();
+        }
+
+        @Override
+        public void accept(int x, int y, int z, int stateId) {
+            int blockX = x + originX, blockY = y + originY, blockZ = z + originZ;
+            column(blockX >> 4, blockZ >> 4).set(blockX & 15, blockY, blockZ & 15, stateId);
+        }
+
+        /**
+         * Copies whole blueprint sections into the matching chunk sections, which requires a section aligned origin.
+         * Sections without block data are filled with their single state.
+         */
+        void sections(AxiomBlueprint blueprint) {
+            int baseX = originX >> 4, baseY = originY >> 4, baseZ = originZ >> 4;
+            for (var section : blueprint.sections()) {
+                var chunkPos = section.chunkPos();
+                var column = column(chunkPos.blockX() + baseX, chunkPos.blockZ() + baseZ);
+                var buffer = column.section(chunkPos.blockY() + baseY);
+
+                var palette = section.palette();
+                var blockData = section.blockData();
+                if (blockData == null) {
+                    buffer.fill(palette.getFirst().stateId());
+                    continue;
+                }
+
+                var stateIds = new int[palette.size()];
+                for (int i = 0; i < stateIds.length; i++) stateIds[i] = palette.get(i).stateId();
+                for (int index = 0; index < SECTION_VOLUME; index++)
+                    buffer.set(index, stateIds[blockData.get(index)]);
+            }
+        }
+
+        private ColumnBuffer column(int chunkX, int chunkZ) {
+            long key = CoordConversion.chunkIndex(chunkX, chunkZ);
+            var column = last;
+            if (column == null || key != lastKey) {
+                column = columns.get(key);
+                if (column == null) {
+                    column = new ColumnBuffer(chunkX, chunkZ);
+                    columns.put(key, column);
+                }
+                last = column;
+                lastKey = key;
+            }
+            return column;
+        }
+    }
+
+    static final class ColumnBuffer {
+        final int chunkX, chunkZ;
+        final Int2ObjectMap<SectionBuffer> sections = new Int2ObjectOpenHashMap<>();
+
+        private int lastSectionY = Integer.MIN_VALUE;
+        private @Nullable SectionBuffer last = null;
+
+        ColumnBuffer(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        void set(int localX, int blockY, int localZ, int stateId) {
+            section(blockY >> 4).set(sectionIndex(localX, blockY & 15, localZ), stateId);
+        }
+
+        SectionBuffer section(int sectionY) {
+            var section = last;
+            if (section == null || sectionY != lastSectionY) {
+                section = sections.computeIfAbsent(sectionY, ignored -> new SectionBuffer());
+                last = section;
+                lastSectionY = sectionY;
+            }
+            return section;
+        }
+
+        void apply(Instance instance, Chunk chunk) {
+            // Existing blocks with a handler or nbt are tracked by the chunk outside the palette, so they need to go
+            // through the instance to be cleared.
+            List<Point> stalePositions = new ArrayList<>();
+            IntList staleStates = new IntArrayList();
+
+            synchronized (chunk) {
+                for (var entry : sections.int2ObjectEntrySet()) {
+                    int sectionY = entry.getIntKey();
+                    if (sectionY < chunk.getMinSection() || sectionY >= chunk.getMaxSection()) continue;
+                    var buffer = entry.getValue();
+                    var states = buffer.states;
+
+                    int baseX = chunkX << 4, baseY = sectionY << 4, baseZ = chunkZ << 4;
+                    for (int index = 0; index < SECTION_VOLUME; index++) {
+                        if (states[index] == UNSET) continue;
+                        int x = baseX + (index & 15), y = baseY + (index >> 8), z = baseZ + ((index >> 4) & 15);
+                        if (chunk.getBlock(x, y, z, Block.Getter.Condition.CACHED) != null) {
+                            stalePositions.add(new Vec(x, y, z));
+                            staleStates.add(states[index]);
+                        }
+                    }
+
+                    var palette = chunk.getSection(sectionY).blockPalette();
+                    if (buffer.uniformState != UNSET) {
+                        palette.fill(buffer.uniformState);
+                    } else if (buffer.count == SECTION_VOLUME) {
+                        palette.setAll((x, y, z) -> states[sectionIndex(x, y, z)]);
+                    } else {
+                        for (int index = 0; index < SECTION_VOLUME; index++) {
+                            if (states[index] == UNSET) continue;
+                            palette.set(index & 15, index >> 8, (index >> 4) & 15, states[index]);
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < stalePositions.size(); i++) {
+                var block = Objects.requireNonNull(Block.fromStateId(staleStates.getInt(i)));
+                instance.setBlock(stalePositions.get(i), block);
+            }
+
+            chunk.invalidate();
+            chunk.sendChunk();
+        }
+    }
+
+    static final class SectionBuffer {
+        final int[] states = new int[SECTION_VOLUME];
+        int count = 0;
+        // Set while the whole section is a single state written by fill
+        int uniformState = UNSET;
+
+        SectionBuffer() {
+            Arrays.fill(states, UNSET);
+        }
+
+        void set(int index, int stateId) {
+            if (states[index] == UNSET) count++;
+            states[index] = stateId;
+            uniformState = UNSET;
+        }
+
+        void fill(int stateId) {
+            Arrays.fill(states, stateId);
+            count = SECTION_VOLUME;
+            uniformState = stateId;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@NotNullByDefault
+package net.hollowcube.schem.paste;
+
+import org.jetbrains.annotations.NotNullByDefault;
\ No newline at end of file
@@ -2,6 +2,7 @@ package net.hollowcube.schem.reader;
 
 import net.hollowcube.schem.AxiomBlueprint;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
 import net.hollowcube.schem.util.GameDataProvider;
 import net.kyori.adventure.nbt.*;
 import net.minestom.server.coordinate.Vec;
@@ -9,9 +10,14 @@ import net.minestom.server.instance.block.Block;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import static net.hollowcube.schem.reader.ReadHelpers.*;
 
@@ -20,15 +26,105 @@ final class AxiomBlueprintReader implements SchematicReader {
 
     @Override
     public Schematic read(byte[] data) throws IOException {
-        var dis = new DataInputStream(new ByteArrayInputStream(data));
-        assertTrue(dis.readInt() == AxiomBlueprint.MAGIC_NUMBER, "invalid magic number");
+        return read(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Reads each section by its length prefix, leaving the stream directly after the block data. The block data is
+     * inflated straight from the stream.
+     */
+    @Override
+    public Schematic read(InputStream stream) throws IOException {
+        var input = new DataInputStream(stream);
+        assertTrue(input.readInt() == AxiomBlueprint.MAGIC_NUMBER, "invalid magic number");
 
-        var rawHeader = dis.readNBytes(dis.readInt());
+        var rawHeader = new byte[checkLength(input.readInt(), "header")];
+        input.readFully(rawHeader);
         var header = BinaryTagIO.unlimitedReader().read(new ByteArrayInputStream(rawHeader));
-        var thumbnail = ByteArrayBinaryTag.byteArrayBinaryTag(dis.readNBytes(dis.readInt()));
+        var rawThumbnail = new byte[checkLength(input.readInt(), "thumbnail")];
+        input.readFully(rawThumbnail);
+        var thumbnail = ByteArrayBinaryTag.byteArrayBinaryTag(rawThumbnail);
+
+        var blockData = new BoundedInputStream(stream, checkLength(input.readInt(), "block data"));
+        final CompoundBinaryTag blockDataNbt;
+        try (var gzip = new PooledGzipInputStream(blockData)) {
+            blockDataNbt = BinaryTagIO.unlimitedReader().read(gzip);
+        }
+        // Skip anything after the gzip trailer, so the stream always ends up after the block data
+        blockData.skipRemaining();
+        return read(header, thumbnail, blockDataNbt);
+    }
+
+    @Override
+    public Schematic read(ByteBuffer buffer) throws IOException {
+        // The header and thumbnail are small so they are copied out, but the block data is inflated directly
+        // from a slice of the source buffer (which may be a mapped file).
+        var buf = buffer.slice();
+        try {
+            assertTrue(buf.getInt() == AxiomBlueprint.MAGIC_NUMBER, "invalid magic number");
+
+            var rawHeader = new byte[checkLength(buf.getInt(), "header")];
+            buf.get(rawHeader);
+            var header = BinaryTagIO.unlimitedReader().read(new ByteArrayInputStream(rawHeader));
+            var rawThumbnail = new byte[checkLength(buf.getInt(), "thumbnail")];
+            buf.get(rawThumbnail);
+            var thumbnail = ByteArrayBinaryTag.byteArrayBinaryTag(rawThumbnail);
+
+            var blockDataLength = checkLength(buf.getInt(), "block data");
+            var blockDataSlice = buf.slice(buf.position(), blockDataLength);
+            final CompoundBinaryTag blockDataNbt;
+            try (var input = new PooledGzipInputStream(blockDataSlice)) {
+                blockDataNbt = BinaryTagIO.unlimitedReader().read(input);
+            }
+            return read(header, thumbnail, blockDataNbt);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new SchematicReadException("unexpected end of blueprint", e);
+        }
+    }
+
+    /**
+     * Reads only the header NBT. The thumbnail and block data are skipped by their length prefixes without being
+     * copied or inflated. The size of a blueprint is only known from its block data, so it is reported as zero.
+     */
+    @Override
+    public SchematicHeader readHeader(ByteBuffer buffer) throws IOException {
+        var buf = buffer.slice();
+        try {
+            assertTrue(buf.getInt() == AxiomBlueprint.MAGIC_NUMBER, "invalid magic number");
+            var rawHeader = new byte[checkLength(buf.getInt(), "header")];
+            buf.get(rawHeader);
+            return readHeader(BinaryTagIO.unlimitedReader().read(new ByteArrayInputStream(rawHeader)));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new SchematicReadException("unexpected end of blueprint", e);
+        }
+    }
 
-        var rawBlockData = dis.readNBytes(dis.readInt());
-        var blockDataNbt = BinaryTagIO.unlimitedReader().read(new ByteArrayInputStream(rawBlockData), BinaryTagIO.Compression.GZIP);
+    /**
+     * Reads only the header NBT, leaving the thumbnail and block data unread in the stream.
+     */
+    @Override
+    public SchematicHeader readHeader(InputStream stream) throws IOException {
+        var input = new DataInputStream(stream);
+        assertTrue(input.readInt() == AxiomBlueprint.MAGIC_NUMBER, "invalid magic number");
+        var rawHeader = new byte[checkLength(input.readInt(), "header")];
+        input.readFully(rawHeader);
+        return readHeader(BinaryTagIO.unlimitedReader().read(new ByteArrayInputStream(rawHeader)));
+    }
+
+    private static int checkLength(int length, String section) {
+        assertTrue(length >= 0, "invalid {0} length {1}", section, length);
+        return length;
+    }
+
+    private static SchematicHeader readHeader(CompoundBinaryTag header) {
+        return new SchematicHeader(
+                SchematicHeader.Format.AXIOM, header,
+                header.getString("Name"), header.getString("Author"), null,
+                Vec.ZERO, Vec.ZERO, List.of()
+        );
+    }
+
+    private Schematic read(CompoundBinaryTag header, ByteArrayBinaryTag thumbnail, CompoundBinaryTag blockDataNbt) {
         var dataVersion = blockDataNbt.getInt("DataVersion", gameData.dataVersion());
 
         var regions = new ArrayList<AxiomBlueprint.SectionData>();
@@ -74,4 +170,42 @@ final class AxiomBlueprintReader implements SchematicReader {
 
         return new AxiomBlueprint(header, thumbnail, size, List.of(), regions);
     }
+
+    /**
+     * A view of the next {@code remaining} bytes of a stream, which does not close the underlying stream.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream source;
+        private long remaining;
+
+        BoundedInputStream(InputStream source, long remaining) {
+            this.source = source;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = source.read();
+            if (b == -1) throw new EOFException("unexpected end of blueprint");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) return 0;
+            if (remaining <= 0) return -1;
+            int read = source.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) throw new EOFException("unexpected end of blueprint");
+            remaining -= read;
+            return read;
+        }
+
+        void skipRemaining() throws IOException {
+            source.skipNBytes(remaining);
+            remaining = 0;
+        }
+    }
 }
@@ -2,58 +2,161 @@ package net.hollowcube.schem.reader;
 
 import net.hollowcube.schem.AxiomBlueprint;
 import net.hollowcube.schem.Schematic;
-import net.kyori.adventure.nbt.BinaryTagIO;
+import net.hollowcube.schem.SchematicHeader;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import static net.hollowcube.schem.reader.ReadHelpers.readGzipRoot;
+
 final class DetectingSchematicReader implements SchematicReader {
 
     @Override
     public Schematic read(byte[] data) throws IOException, UnknownSchematicTypeException {
+        return read(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public Schematic read(ByteBuffer buffer) throws IOException, UnknownSchematicTypeException {
         // Axiom Blueprint is the simplest because it always has a known magic number at the start.
-        var dis = new DataInputStream(new ByteArrayInputStream(data));
-        if (dis.readInt() == AxiomBlueprint.MAGIC_NUMBER) {
-            return new AxiomBlueprintReader().read(data);
+        if (buffer.remaining() >= Integer.BYTES && buffer.getInt(buffer.position()) == AxiomBlueprint.MAGIC_NUMBER) {
+            return new AxiomBlueprintReader().read(buffer);
+        }
+
+        final var spongeArrays = new SpongeSchematicReader.StreamedArrays();
+        return readNbt(readGzipRoot(buffer, spongeArrays), spongeArrays);
+    }
+
+    @Override
+    public Schematic read(InputStream stream) throws IOException, UnknownSchematicTypeException {
+        var buffered = peekable(stream);
+        if (peekInt(buffered) == AxiomBlueprint.MAGIC_NUMBER) {
+            return new AxiomBlueprintReader().read(buffered);
+        }
+
+        final var spongeArrays = new SpongeSchematicReader.StreamedArrays();
+        return readNbt(readGzipRoot(buffered, spongeArrays), spongeArrays);
+    }
+
+    @Override
+    public SchematicHeader readHeader(ByteBuffer buffer) throws IOException, UnknownSchematicTypeException {
+        if (buffer.remaining() >= Integer.BYTES && buffer.getInt(buffer.position()) == AxiomBlueprint.MAGIC_NUMBER) {
+            return new AxiomBlueprintReader().readHeader(buffer);
+        }
+
+        var skipping = new NbtStreamReader.Skipping(DetectingSchematicReader::isHeaderSkipped);
+        return readNbtHeader(readGzipRoot(buffer, skipping), skipping.skipped());
+    }
+
+    @Override
+    public SchematicHeader readHeader(InputStream stream) throws IOException, UnknownSchematicTypeException {
+        var buffered = peekable(stream);
+        if (peekInt(buffered) == AxiomBlueprint.MAGIC_NUMBER) {
+            return new AxiomBlueprintReader().readHeader(buffered);
         }
 
-        // All other options are an NBT compound at the root.
-        final Map.Entry<String, CompoundBinaryTag> rootPair = BinaryTagIO.reader().readNamed(
-                new ByteArrayInputStream(data),
-                BinaryTagIO.Compression.GZIP
-        );
+        var skipping = new NbtStreamReader.Skipping(DetectingSchematicReader::isHeaderSkipped);
+        return readNbtHeader(readGzipRoot(buffered, skipping), skipping.skipped());
+    }
+
+    /**
+     * Wraps the stream so that its first bytes can be peeked. A markable stream is used as is, so the readers can
+     * leave it directly after the schematic.
+     */
+    private static InputStream peekable(InputStream stream) {
+        return stream.markSupported() ? stream : new PushbackInputStream(stream, Integer.BYTES);
+    }
 
-        final Set<String> keys = rootPair.getValue().keySet();
-        return switch (rootPair.getKey()) {
+    /**
+     * Reads the first four bytes as a big endian int without consuming them. Returns zero if the stream is shorter
+     * than an int.
+     */
+    private static int peekInt(InputStream stream) throws IOException {
+        final byte[] bytes;
+        if (stream instanceof PushbackInputStream pushback) {
+            bytes = pushback.readNBytes(Integer.BYTES);
+            pushback.unread(bytes);
+        } else {
+            stream.mark(Integer.BYTES);
+            bytes = stream.readNBytes(Integer.BYTES);
+            stream.reset();
+        }
+        if (bytes.length < Integer.BYTES) return 0;
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    // All other options are an NBT compound at the root. Sponge block and biome data is pulled out while
+    // streaming so that the largest arrays do not need to be held in the tree as well.
+    private Schematic readNbt(
+            Map.Entry<String, CompoundBinaryTag> rootPair,
+            SpongeSchematicReader.StreamedArrays spongeArrays
+    ) throws UnknownSchematicTypeException {
+        return switch (detect(rootPair.getKey(), rootPair.getValue().keySet())) {
+            case STRUCTURE -> new StructureReader().read(rootPair);
+            case LITEMATICA -> new LitematicaSchematicReader().read(rootPair);
+            case MCEDIT -> new MCEditSchematicReader().read(rootPair);
+            default -> new SpongeSchematicReader().read(rootPair, spongeArrays);
+        };
+    }
+
+    private SchematicHeader readNbtHeader(
+            Map.Entry<String, CompoundBinaryTag> rootPair,
+            Set<String> skippedPaths
+    ) throws UnknownSchematicTypeException {
+        // Skipped root fields are not in the tree, but they still count for detection
+        var keys = new HashSet<>(rootPair.getValue().keySet());
+        for (var path : skippedPaths) {
+            if (path.indexOf('.') == -1) keys.add(path);
+        }
+        return switch (detect(rootPair.getKey(), keys)) {
+            case STRUCTURE -> new StructureReader().readHeader(rootPair);
+            case LITEMATICA -> new LitematicaSchematicReader().readHeader(rootPair);
+            case MCEDIT -> new MCEditSchematicReader().readHeader(rootPair);
+            default -> new SpongeSchematicReader().readHeader(rootPair);
+        };
+    }
+
+    private static SchematicHeader.Format detect(String rootName, Set<String> keys) throws UnknownSchematicTypeException {
+        return switch (rootName) {
             case "" -> {
                 // An empty key at the root can either be a Structure, Litematica, or Sponge V3 schematic
                 if (keys.contains("palette") || keys.contains("palettes")) {
                     // Definitely a structure. Note that both others have palette but it is not in the root object.
-                    yield new StructureReader().read(rootPair);
+                    yield SchematicHeader.Format.STRUCTURE;
                 } else if (keys.contains("MinecraftDataVersion") || keys.contains("Regions")) {
                     // Definitely a Litematic schematic.
-                    yield new LitematicaSchematicReader().read(rootPair);
+                    yield SchematicHeader.Format.LITEMATICA;
                 }
 
                 // Otherwise, its probably a sponge schematic
-                yield new SpongeSchematicReader().read(rootPair);
+                yield SchematicHeader.Format.SPONGE;
             }
             case "Schematic" -> {
                 // Schematic as the root key can be Sponge V1, V2 or an MCEdit schematic.
                 if (keys.contains("Materials") || keys.contains("Platform") || keys.contains("Blocks") || keys.contains("Data")) {
                     // Any of these indicate an MCEdit schematic
-                    yield new MCEditSchematicReader().read(rootPair);
+                    yield SchematicHeader.Format.MCEDIT;
                 }
 
                 // Otherwise, its probably a sponge schematic
-                yield new SpongeSchematicReader().read(rootPair);
+                yield SchematicHeader.Format.SPONGE;
             }
             default -> throw new UnknownSchematicTypeException();
         };
     }
 
+    // The format is not known until the root has been read, so skip the large fields of every format
+    private static boolean isHeaderSkipped(String path) {
+        return SpongeSchematicReader.HEADER_SKIPPED.contains(path)
+                || StructureReader.HEADER_SKIPPED.contains(path)
+                || MCEditSchematicReader.HEADER_SKIPPED.contains(path)
+                || LitematicaSchematicReader.isHeaderSkipped(path);
+    }
+
 }
@@ -0,0 +1,29 @@
+package net.hollowcube.schem.reader;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * A small pool of raw (nowrap) inflaters shared by all readers.
+ *
+ * <p>Each {@link Inflater} owns native zlib state which is only freed by {@link Inflater#end()} or a cleaner, so
+ * allocating one per read is expensive when loading many schematics at once.</p>
+ */
+final class InflaterPool {
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final BlockingQueue<Inflater> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    public static Inflater acquire() {
+        var inflater = POOL.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    public static void release(Inflater inflater) {
+        inflater.reset();
+        if (!POOL.offer(inflater)) inflater.end();
+    }
+
+    private InflaterPool() {
+    }
+}
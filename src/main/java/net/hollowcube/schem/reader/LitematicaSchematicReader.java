@@ -4,62 +4,105 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.hollowcube.schem.BlockEntityData;
+import net.hollowcube.schem.BlockStorage;
 import net.hollowcube.schem.LitematicaSchematic;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
 import net.hollowcube.schem.SpongeSchematic;
 import net.hollowcube.schem.util.CoordinateUtil;
 import net.hollowcube.schem.util.GameDataProvider;
-import net.kyori.adventure.nbt.BinaryTagIO;
 import net.kyori.adventure.nbt.BinaryTagTypes;
-import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
-import net.minestom.server.network.NetworkBuffer;
 import org.jetbrains.annotations.ApiStatus;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
 import static net.hollowcube.schem.reader.ReadHelpers.*;
 import static net.hollowcube.schem.util.CoordinateUtil.blockIndex;
 
-@SuppressWarnings("UnstableApiUsage")
 final class LitematicaSchematicReader implements SchematicReader {
     private final GameDataProvider gameData = GameDataProvider.provider();
 
     @Override
     public Schematic read(byte[] data) throws IOException {
-        try {
-            return read(BinaryTagIO.reader().readNamed(
-                    new ByteArrayInputStream(data),
-                    BinaryTagIO.Compression.GZIP
-            ));
-        } catch (IOException e) {
-            throw new SchematicReadException("failed to read root compound", e);
+        return read(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public Schematic read(ByteBuffer buffer) throws IOException {
+        return read(readGzipRoot(buffer));
+    }
+
+    @Override
+    public Schematic read(InputStream stream) throws IOException {
+        return read(readGzipRoot(stream));
+    }
+
+    @Override
+    public SchematicHeader readHeader(ByteBuffer buffer) throws IOException {
+        return readHeader(readGzipRoot(buffer, new NbtStreamReader.Skipping(LitematicaSchematicReader::isHeaderSkipped)));
+    }
+
+    @Override
+    public SchematicHeader readHeader(InputStream stream) throws IOException {
+        return readHeader(readGzipRoot(stream, new NbtStreamReader.Skipping(LitematicaSchematicReader::isHeaderSkipped)));
+    }
+
+    SchematicHeader readHeader(Map.Entry<String, CompoundBinaryTag> rootPair) {
+        var root = validateRoot(rootPair);
+        var metadata = getRequired(root, "Metadata", BinaryTagTypes.COMPOUND);
+        var enclosingSize = readEnclosingSize(metadata);
+
+        // The palette is the distinct states across every region, with air first like the flattened palette. The
+        // offset is the minimum corner of the regions, see LitematicaSchematic#offset
+        var palette = new LinkedHashSet<Block>();
+        palette.add(Block.AIR);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        var regions = getRequired(root, "Regions", BinaryTagTypes.COMPOUND);
+        for (var regionPair : regions) {
+            var region = (CompoundBinaryTag) regionPair.getValue();
+            for (var state : getRequired(region, "BlockStatePalette", BinaryTagTypes.LIST))
+                palette.add(readBlockState((CompoundBinaryTag) state));
+
+            var regionMin = regionMin(region);
+            minX = Math.min(minX, regionMin.blockX());
+            minY = Math.min(minY, regionMin.blockY());
+            minZ = Math.min(minZ, regionMin.blockZ());
         }
+        var offset = regions.size() == 0 ? Vec.ZERO : new Vec(minX, minY, minZ);
+
+        return new SchematicHeader(
+                SchematicHeader.Format.LITEMATICA, metadata,
+                metadataString(metadata, "Name"), metadataString(metadata, "Author"), metadataInstant(metadata, "TimeCreated"),
+                enclosingSize, offset, List.copyOf(palette)
+        );
+    }
+
+    // Everything in a region except its position, size and palette is skipped when reading the header
+    static boolean isHeaderSkipped(String path) {
+        return path.startsWith("Regions.") && (path.endsWith(".BlockStates") || path.endsWith(".TileEntities")
+                || path.endsWith(".Entities") || path.endsWith(".PendingBlockTicks") || path.endsWith(".PendingFluidTicks"));
     }
 
     @ApiStatus.Internal
     public Schematic read(Map.Entry<String, CompoundBinaryTag> rootPair) {
-        assertTrue("".equals(rootPair.getKey()), "root tag must be empty, was: '{0}'", rootPair.getKey());
-        var root = rootPair.getValue();
+        var root = validateRoot(rootPair);
         var dataVersion = getRequired(root, "MinecraftDataVersion", BinaryTagTypes.INT).value();
-        var version = getRequired(root, "Version", BinaryTagTypes.INT).value();
-        var subVersion = getRequired(root, "SubVersion", BinaryTagTypes.INT).value();
-        assertTrue(version == 6 && subVersion == 1, "unsupported version (only 6.1 is supported): {0}.{1}", version, subVersion);
 
         var metadata = getRequired(root, "Metadata", BinaryTagTypes.COMPOUND);
-        var enclosingSize = getRequiredVec3(metadata, "EnclosingSize");
-        assertTrue(enclosingSize.blockX() > 0, "invalid enclosing width: {0}", enclosingSize.blockX());
-        assertTrue(enclosingSize.blockY() > 0, "invalid enclosing height: {0}", enclosingSize.blockY());
-        assertTrue(enclosingSize.blockZ() > 0, "invalid enclosing length: {0}", enclosingSize.blockZ());
+        var enclosingSize = readEnclosingSize(metadata);
 
-        var regions = new HashMap<String, Schematic>();
+        var regions = new LinkedHashMap<String, Schematic>();
         for (var regionPair : getRequired(root, "Regions", BinaryTagTypes.COMPOUND)) {
             var region = loadRegion(dataVersion, (CompoundBinaryTag) regionPair.getValue());
             regions.put(regionPair.getKey(), region);
@@ -68,13 +111,41 @@ final class LitematicaSchematicReader implements SchematicReader {
         return new LitematicaSchematic(metadata, enclosingSize, regions);
     }
 
-    private Schematic loadRegion(int dataVersion, CompoundBinaryTag region) {
-        var rawPos = getRequiredVec3(region, "Position");
-        var rawSize = getRequiredVec3(region, "Size")
+    private static Point regionMin(CompoundBinaryTag region) {
+        var position = getRequiredVec3(region, "Position");
+        return CoordinateUtil.min(position, regionEnd(region, position));
+    }
+
+    // Region sizes may be negative, in which case the region extends in the negative direction from its position
+    private static Point regionEnd(CompoundBinaryTag region, Point position) {
+        return getRequiredVec3(region, "Size")
                 .withX(x -> x >= 0 ? x - 1 : x + 1)
                 .withY(y -> y >= 0 ? y - 1 : y + 1)
-                .withZ(z -> z >= 0 ? z - 1 : z + 1);
-        var relativeEnd = rawSize.add(rawPos);
+                .withZ(z -> z >= 0 ? z - 1 : z + 1)
+                .add(position);
+    }
+
+    private static CompoundBinaryTag validateRoot(Map.Entry<String, CompoundBinaryTag> rootPair) {
+        assertTrue("".equals(rootPair.getKey()), "root tag must be empty, was: '{0}'", rootPair.getKey());
+        var root = rootPair.getValue();
+        getRequired(root, "MinecraftDataVersion", BinaryTagTypes.INT);
+        var version = getRequired(root, "Version", BinaryTagTypes.INT).value();
+        var subVersion = getRequired(root, "SubVersion", BinaryTagTypes.INT).value();
+        assertTrue(version == 6 && subVersion == 1, "unsupported version (only 6.1 is supported): {0}.{1}", version, subVersion);
+        return root;
+    }
+
+    private static Point readEnclosingSize(CompoundBinaryTag metadata) {
+        var enclosingSize = getRequiredVec3(metadata, "EnclosingSize");
+        assertTrue(enclosingSize.blockX() > 0, "invalid enclosing width: {0}", enclosingSize.blockX());
+        assertTrue(enclosingSize.blockY() > 0, "invalid enclosing height: {0}", enclosingSize.blockY());
+        assertTrue(enclosingSize.blockZ() > 0, "invalid enclosing length: {0}", enclosingSize.blockZ());
+        return enclosingSize;
+    }
+
+    private Schematic loadRegion(int dataVersion, CompoundBinaryTag region) {
+        var rawPos = getRequiredVec3(region, "Position");
+        var relativeEnd = regionEnd(region, rawPos);
         var absoluteMin = CoordinateUtil.min(rawPos, relativeEnd);
         var absoluteMax = CoordinateUtil.max(rawPos, relativeEnd);
         var size = absoluteMax.sub(absoluteMin).add(1);
@@ -98,45 +169,53 @@ final class LitematicaSchematicReader implements SchematicReader {
             blockEntityData.put(index, data);
         }
 
-        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>();
+        List<BlockEntityData> blockEntityList = new ArrayList<>();
         var packedBlocks = getRequired(region, "BlockStates", BinaryTagTypes.LONG_ARRAY).value();
         var unpackedBlocks = new int[size.blockX() * size.blockY() * size.blockZ()];
         var bitsPerEntry = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(blockPalette.length - 1));
         ReadHelpers.unpackPaletteTight(unpackedBlocks, packedBlocks, bitsPerEntry);
-        var blockData = ByteArrayBinaryTag.byteArrayBinaryTag(NetworkBuffer.makeArray(buffer -> {
-            for (int index = 0; index < unpackedBlocks.length; index++) {
-                var paletteIndex = unpackedBlocks[index];
-                buffer.write(NetworkBuffer.VAR_INT, paletteIndex);
-
-                // Try to find block entity for this block
-                var blockEntityType = blockPalette[paletteIndex].registry().blockEntityType();
-                if (blockEntityType != null) {
-                    var blockEntity = blockEntityData.getOrDefault(index, CompoundBinaryTag.empty());
-                    var blockPosition = new Vec(
-                            index % size.x(),
-                            (index / size.x()) % size.z(),
-                            index / (size.x() * size.z())
-                    );
-                    if (dataVersion != gameData.dataVersion()) {
-                        blockEntity = gameData.upgradeBlockEntity(dataVersion, gameData.dataVersion(), blockEntityType.name(), blockEntity);
-                    }
-                    blockEntities.put(blockIndex(size, blockPosition), new BlockEntityData(blockEntityType.name(), blockPosition, blockEntity));
-                }
+        final BlockStorage.Builder blockStorage;
+        try {
+            blockStorage = BlockStorage.builder(size, blockPalette.length);
+        } catch (IllegalArgumentException e) {
+            throw new SchematicReadException("invalid block palette", e);
+        }
+        for (int index = 0; index < unpackedBlocks.length; index++) {
+            var paletteIndex = unpackedBlocks[index];
+            assertTrue(paletteIndex < blockPalette.length, "palette index {0} out of bounds at {1}", paletteIndex, index);
+            blockStorage.set(index, paletteIndex);
+
+            // Try to find block entity for this block
+            var blockEntityType = blockPalette[paletteIndex].registry().blockEntityType();
+            if (blockEntityType != null) {
+                var blockEntity = blockEntityData.getOrDefault(index, CompoundBinaryTag.empty());
+                // Storage is in x, then z, then y order
+                var blockPosition = new Vec(
+                        index % size.blockX(),
+                        index / (size.blockX() * size.blockZ()),
+                        (index / size.blockX()) % size.blockZ()
+                );
+                blockEntityList.add(new BlockEntityData(blockEntityType.name(), blockPosition, blockEntity));
             }
-        }));
+        }
+
+        // Block entities are upgraded as one batch
+        if (dataVersion != gameData.dataVersion() && !blockEntityList.isEmpty())
+            blockEntityList = gameData.upgradeBlockEntities(dataVersion, gameData.dataVersion(), blockEntityList);
+        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>(blockEntityList.size());
+        for (var blockEntity : blockEntityList)
+            blockEntities.put(blockIndex(size, blockEntity.position()), blockEntity);
 
         // === Entities ===
-        var entities = new ArrayList<CompoundBinaryTag>();
-        for (var entityTag : region.getList("Entities", BinaryTagTypes.COMPOUND)) {
-            var entity = (CompoundBinaryTag) entityTag;
-            if (dataVersion != gameData.dataVersion())
-                entity = gameData.upgradeEntity(dataVersion, gameData.dataVersion(), entity);
-            entities.add(entity);
-        }
+        List<CompoundBinaryTag> entities = new ArrayList<>();
+        for (var entityTag : region.getList("Entities", BinaryTagTypes.COMPOUND))
+            entities.add((CompoundBinaryTag) entityTag);
+        if (dataVersion != gameData.dataVersion() && !entities.isEmpty())
+            entities = gameData.upgradeEntities(dataVersion, gameData.dataVersion(), entities);
 
         return new SpongeSchematic(
                 CompoundBinaryTag.empty(), size, absoluteMin,
-                List.of(blockPalette), blockData,
+                List.of(blockPalette), blockStorage.build(),
                 List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
                 blockEntities, entities
         );
@@ -4,70 +4,83 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import net.hollowcube.schem.BlockEntityData;
+import net.hollowcube.schem.BlockStorage;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
 import net.hollowcube.schem.SpongeSchematic;
 import net.hollowcube.schem.util.GameDataProvider;
-import net.kyori.adventure.nbt.BinaryTagIO;
 import net.kyori.adventure.nbt.BinaryTagTypes;
-import net.kyori.adventure.nbt.ByteArrayBinaryTag;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
-import net.minestom.server.network.NetworkBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import static net.hollowcube.schem.reader.ReadHelpers.*;
 import static net.hollowcube.schem.util.CoordinateUtil.blockIndex;
 
 // MCEdit/Schematica/WE pre 1.13
-@SuppressWarnings("UnstableApiUsage")
 final class MCEditSchematicReader implements SchematicReader {
     private static final Logger logger = LoggerFactory.getLogger(MCEditSchematicReader.class);
     private static final Map<String, Block> LEGACY_BLOCKS;
 
+    static final Set<String> HEADER_SKIPPED = Set.of("Blocks", "Data", "AddBlocks", "TileEntities", "Entities");
+
     private final GameDataProvider gameData = GameDataProvider.provider();
 
     @Override
     public Schematic read(byte[] data) throws IOException {
-        try {
-            return read(BinaryTagIO.reader().readNamed(
-                    new ByteArrayInputStream(data),
-                    BinaryTagIO.Compression.GZIP
-            ));
-        } catch (IOException e) {
-            throw new SchematicReadException("failed to read root compound", e);
-        }
+        return read(ByteBuffer.wrap(data));
     }
 
-    public Schematic read(Map.Entry<String, CompoundBinaryTag> rootPair) {
+    @Override
+    public Schematic read(ByteBuffer buffer) throws IOException {
+        return read(readGzipRoot(buffer));
+    }
+
+    @Override
+    public Schematic read(InputStream stream) throws IOException {
+        return read(readGzipRoot(stream));
+    }
+
+    @Override
+    public SchematicHeader readHeader(ByteBuffer buffer) throws IOException {
+        return readHeader(readGzipRoot(buffer, new NbtStreamReader.Skipping(HEADER_SKIPPED::contains)));
+    }
+
+    @Override
+    public SchematicHeader readHeader(InputStream stream) throws IOException {
+        return readHeader(readGzipRoot(stream, new NbtStreamReader.Skipping(HEADER_SKIPPED::contains)));
+    }
+
+    /**
+     * The palette is not known without mapping every legacy block id, so it is left empty.
+     */
+    SchematicHeader readHeader(Map.Entry<String, CompoundBinaryTag> rootPair) {
         assertTrue("Schematic".equals(rootPair.getKey()), "missing required root tag 'Schematic'");
         var root = rootPair.getValue();
+        return new SchematicHeader(SchematicHeader.Format.MCEDIT, CompoundBinaryTag.empty(), readSize(root), readOffset(root), List.of());
+    }
 
-        var width = getRequired(root, "Width", BinaryTagTypes.SHORT).value();
-        assertTrue(width > 0, "invalid width {0}", width);
-        var height = getRequired(root, "Height", BinaryTagTypes.SHORT).value();
-        assertTrue(height > 0, "invalid height {0}", height);
-        var length = getRequired(root, "Length", BinaryTagTypes.SHORT).value();
-        assertTrue(length > 0, "invalid length {0}", length);
-        var size = new Vec(width, height, length);
-        var maxIndices = width * height * length;
+    public Schematic read(Map.Entry<String, CompoundBinaryTag> rootPair) {
+        assertTrue("Schematic".equals(rootPair.getKey()), "missing required root tag 'Schematic'");
+        var root = rootPair.getValue();
 
-        var offsetX = root.getInt("WEOffsetX");
-        var offsetY = root.getInt("WEOffsetY");
-        var offsetZ = root.getInt("WEOffsetZ");
-        var offset = new Vec(offsetX, offsetY, offsetZ);
+        var size = readSize(root);
+        var maxIndices = size.blockX() * size.blockY() * size.blockZ();
+        var offset = readOffset(root);
 
         // === Blocks ===
         var blockIds = root.getByteArray("Blocks");
         var blockDataBits = root.getByteArray("Data");
         var updatedPalette = new ArrayList<Block>();
-        var updatedBlockData = new int[maxIndices];
+        var blockStorage = BlockStorage.builder(size, 1);
         for (int i = 0; i < maxIndices; i++) {
             int blockId = blockIds[i] & 255;
             int blockData = blockDataBits[i] & 255;
@@ -80,40 +93,55 @@ final class MCEditSchematicReader implements SchematicReader {
                 paletteIndex = updatedPalette.size();
                 updatedPalette.add(newBlock);
             }
-            updatedBlockData[i] = paletteIndex;
+            blockStorage.set(i, paletteIndex);
         }
-        var blockData = NetworkBuffer.makeArray(buffer -> {
-            for (var data : updatedBlockData)
-                buffer.write(NetworkBuffer.VAR_INT, data);
-        });
 
         // === Block Entities ===
-        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>();
+        var blockEntityList = new ArrayList<BlockEntityData>();
         for (var blockEntityTag : root.getList("TileEntities", BinaryTagTypes.COMPOUND)) {
             var base = (CompoundBinaryTag) blockEntityTag;
             var id = getRequired(base, "id", BinaryTagTypes.STRING).value();
             var pos = getRequiredVec3(base, "");
             var data = base.remove("id").remove("x").remove("y").remove("z");
-            blockEntities.put(blockIndex(size, pos), new BlockEntityData(id, pos,
-                    // Always try to upgrade since this is always a legacy format
-                    gameData.upgradeBlockEntity(GameDataProvider.DATA_VERSION_UNKNOWN, gameData.dataVersion(), id, data)));
+            blockEntityList.add(new BlockEntityData(id, pos, data));
         }
+        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>(blockEntityList.size());
+        // Always try to upgrade since this is always a legacy format
+        for (var blockEntity : gameData.upgradeBlockEntities(GameDataProvider.DATA_VERSION_UNKNOWN, gameData.dataVersion(), blockEntityList))
+            blockEntities.put(blockIndex(size, blockEntity.position()), blockEntity);
 
         // === Entities ===
-        var entities = new ArrayList<CompoundBinaryTag>();
-        for (var entityTag : root.getList("Entities", BinaryTagTypes.COMPOUND)) {
-            // Always try to upgrade since this is always a legacy format
-            entities.add(gameData.upgradeEntity(GameDataProvider.DATA_VERSION_UNKNOWN, gameData.dataVersion(), (CompoundBinaryTag) entityTag));
-        }
+        var entityList = new ArrayList<CompoundBinaryTag>();
+        for (var entityTag : root.getList("Entities", BinaryTagTypes.COMPOUND))
+            entityList.add((CompoundBinaryTag) entityTag);
+        // Always try to upgrade since this is always a legacy format
+        var entities = gameData.upgradeEntities(GameDataProvider.DATA_VERSION_UNKNOWN, gameData.dataVersion(), entityList);
 
         return new SpongeSchematic(
                 CompoundBinaryTag.empty(), size, offset,
-                updatedPalette, ByteArrayBinaryTag.byteArrayBinaryTag(blockData),
+                updatedPalette, blockStorage.build(),
                 List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
                 blockEntities, entities
         );
     }
 
+    private static Vec readSize(CompoundBinaryTag root) {
+        var width = getRequired(root, "Width", BinaryTagTypes.SHORT).value();
+        assertTrue(width > 0, "invalid width {0}", width);
+        var height = getRequired(root, "Height", BinaryTagTypes.SHORT).value();
+        assertTrue(height > 0, "invalid height {0}", height);
+        var length = getRequired(root, "Length", BinaryTagTypes.SHORT).value();
+        assertTrue(length > 0, "invalid length {0}", length);
+        return new Vec(width, height, length);
+    }
+
+    private static Vec readOffset(CompoundBinaryTag root) {
+        var offsetX = root.getInt("WEOffsetX");
+        var offsetY = root.getInt("WEOffsetY");
+        var offsetZ = root.getInt("WEOffsetZ");
+        return new Vec(offsetX, offsetY, offsetZ);
+    }
+
     static {
         var entries = new HashMap<String, Block>();
         try (var is = MCEditSchematicReader.class.getResourceAsStream("/net/hollowcube/schem/legacy_blocks.json")) {
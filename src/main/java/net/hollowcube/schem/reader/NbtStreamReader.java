@@ -0,0 +1,157 @@
+package net.hollowcube.schem.reader;
+
+import net.kyori.adventure.nbt.BinaryTag;
+import net.kyori.adventure.nbt.BinaryTagType;
+import net.kyori.adventure.nbt.BinaryTagTypes;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Reads an NBT root compound from a stream without requiring the whole tree to be materialized.
+ *
+ * <p>Every field (including those of nested compounds) is first offered to a {@link FieldHandler} with its dot
+ * separated path from the root, eg {@code Schematic.Blocks.Data}. The handler may consume the payload directly from
+ * the input, in which case it is not added to the returned tree. This allows large arrays to be decoded in place
+ * rather than being copied into a tag and then copied again out of it.</p>
+ */
+final class NbtStreamReader {
+
+    @FunctionalInterface
+    interface FieldHandler {
+        FieldHandler NONE = (path, type, input) -> false;
+
+        /**
+         * Called before the payload of each field is read.
+         *
+         * @return true if the handler consumed the payload from the input, false to read it into the tree
+         */
+        boolean handle(String path, BinaryTagType<? extends BinaryTag> type, DataInput input) throws IOException;
+    }
+
+    /**
+     * Skips the payloads of fields matching the given path predicate without reading them into tags. Skipped paths
+     * are recorded so that callers can still tell which fields were present.
+     */
+    static final class Skipping implements FieldHandler {
+        private final Predicate<String> paths;
+        private final Set<String> skipped = new HashSet<>();
+
+        Skipping(Predicate<String> paths) {
+            this.paths = paths;
+        }
+
+        Set<String> skipped() {
+            return skipped;
+        }
+
+        @Override
+        public boolean handle(String path, BinaryTagType<? extends BinaryTag> type, DataInput input) throws IOException {
+            if (!paths.test(path)) return false;
+            skip(type, input);
+            skipped.add(path);
+            return true;
+        }
+    }
+
+    public static Map.Entry<String, CompoundBinaryTag> readNamed(DataInput input, FieldHandler handler) throws IOException {
+        var rootType = input.readByte();
+        if (rootType != BinaryTagTypes.COMPOUND.id())
+            throw new SchematicReadException("root tag must be a compound, was: " + rootType);
+        var name = input.readUTF();
+        return Map.entry(name, readCompound(input, "", handler));
+    }
+
+    private static CompoundBinaryTag readCompound(DataInput input, String path, FieldHandler handler) throws IOException {
+        var builder = CompoundBinaryTag.builder();
+        byte typeId;
+        while ((typeId = input.readByte()) != BinaryTagTypes.END.id()) {
+            var type = typeOf(typeId);
+            var key = input.readUTF();
+            var fieldPath = path.isEmpty() ? key : path + '.' + key;
+            if (handler.handle(fieldPath, type, input)) continue;
+
+            // Compounds are always walked by us so that handlers can see nested fields.
+            if (type == BinaryTagTypes.COMPOUND) builder.put(key, readCompound(input, fieldPath, handler));
+            else builder.put(key, type.read(input));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Skips the payload of a tag of the given type.
+     */
+    public static void skip(BinaryTagType<? extends BinaryTag> type, DataInput input) throws IOException {
+        switch (type.id()) {
+            case 1 -> skipFully(input, Byte.BYTES);
+            case 2 -> skipFully(input, Short.BYTES);
+            case 3, 5 -> skipFully(input, Integer.BYTES);
+            case 4, 6 -> skipFully(input, Long.BYTES);
+            case 7 -> skipFully(input, (long) readLength(input));
+            case 8 -> skipFully(input, input.readUnsignedShort());
+            case 9 -> {
+                var elementTypeId = input.readByte();
+                int length = input.readInt();
+                // An empty list may have an end element type, so only resolve the type if there are elements
+                if (length <= 0) return;
+                var elementType = typeOf(elementTypeId);
+                for (int i = 0; i < length; i++) skip(elementType, input);
+            }
+            case 10 -> {
+                byte typeId;
+                while ((typeId = input.readByte()) != BinaryTagTypes.END.id()) {
+                    var fieldType = typeOf(typeId);
+                    skipFully(input, input.readUnsignedShort());
+                    skip(fieldType, input);
+                }
+            }
+            case 11 -> skipFully(input, (long) readLength(input) * Integer.BYTES);
+            case 12 -> skipFully(input, (long) readLength(input) * Long.BYTES);
+            default -> throw new SchematicReadException("cannot skip nbt tag type: " + type);
+        }
+    }
+
+    private static int readLength(DataInput input) throws IOException {
+        var length = input.readInt();
+        if (length < 0) throw new SchematicReadException("invalid array length " + length);
+        return length;
+    }
+
+    private static void skipFully(DataInput input, long count) throws IOException {
+        while (count > 0) {
+            int skipped = input.skipBytes((int) Math.min(count, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // skipBytes may give up early, so fall back to reading a byte to detect the end of input
+                input.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    public static BinaryTagType<? extends BinaryTag> typeOf(byte id) {
+        return switch (id) {
+            case 1 -> BinaryTagTypes.BYTE;
+            case 2 -> BinaryTagTypes.SHORT;
+            case 3 -> BinaryTagTypes.INT;
+            case 4 -> BinaryTagTypes.LONG;
+            case 5 -> BinaryTagTypes.FLOAT;
+            case 6 -> BinaryTagTypes.DOUBLE;
+            case 7 -> BinaryTagTypes.BYTE_ARRAY;
+            case 8 -> BinaryTagTypes.STRING;
+            case 9 -> BinaryTagTypes.LIST;
+            case 10 -> BinaryTagTypes.COMPOUND;
+            case 11 -> BinaryTagTypes.INT_ARRAY;
+            case 12 -> BinaryTagTypes.LONG_ARRAY;
+            default -> throw new SchematicReadException("unknown nbt tag type: " + id);
+        };
+    }
+
+    private NbtStreamReader() {
+    }
+}
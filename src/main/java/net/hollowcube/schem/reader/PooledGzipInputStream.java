@@ -0,0 +1,216 @@
+package net.hollowcube.schem.reader;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A GZIP decompressing stream using an {@link Inflater} borrowed from {@link InflaterPool}, which is returned when
+ * the stream is closed. Multi-member streams (as written by parallel compressors) are read as one continuous stream.
+ *
+ * <p>The compressed input may be a {@link ByteBuffer} (for example a memory mapped file), which is inflated in place
+ * without any intermediate copy, or an {@link InputStream} which is read through a small buffer. The source is never
+ * closed by this stream.</p>
+ *
+ * <p>If the source stream supports {@link InputStream#mark(int)}, any buffered bytes past the last member are given
+ * back with {@link InputStream#reset()} once the end is reached, so the source is left directly after the gzip data.
+ * Other streams may be read up to one buffer past the end.</p>
+ */
+final class PooledGzipInputStream extends InputStream {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    private final @Nullable InputStream source;
+    private final ByteBuffer input;
+    private final CRC32 crc = new CRC32();
+    private final byte[] single = new byte[1];
+
+    private @Nullable Inflater inflater;
+    private boolean eof = false;
+    // The number of bytes read from the source by the last fill, which can be given back to a markable source
+    private int lastRead = 0;
+
+    PooledGzipInputStream(ByteBuffer compressed) throws IOException {
+        this(null, compressed.slice());
+    }
+
+    PooledGzipInputStream(InputStream source) throws IOException {
+        this(Objects.requireNonNull(source), ByteBuffer.allocate(STREAM_BUFFER_SIZE).limit(0));
+    }
+
+    private PooledGzipInputStream(@Nullable InputStream source, ByteBuffer input) throws IOException {
+        this.source = source;
+        this.input = input;
+        this.inflater = InflaterPool.acquire();
+        try {
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        inflater.setInput(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        var inflater = this.inflater;
+        if (inflater == null) throw new IOException("stream closed");
+        if (len == 0) return 0;
+
+        while (!eof) {
+            final int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException(Objects.requireNonNullElse(e.getMessage(), "invalid deflate data"));
+            }
+            if (n > 0) {
+                crc.update(b, off, n);
+                return n;
+            }
+
+            if (inflater.finished()) {
+                readTrailer(inflater);
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("unexpected preset dictionary");
+            } else if (inflater.needsInput()) {
+                if (!fill()) throw new EOFException("unexpected end of gzip stream");
+                inflater.setInput(input);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        if (inflater == null) return;
+        InflaterPool.release(inflater);
+        inflater = null;
+    }
+
+    private void readHeader() throws IOException {
+        if (readUShort() != GZIP_MAGIC) throw new ZipException("not in gzip format");
+        if (readUByte() != 8) throw new ZipException("unsupported compression method");
+        int flags = readUByte();
+        skipBytes(6); // Modification time, extra flags, operating system
+
+        if ((flags & FEXTRA) != 0) skipBytes(readUShort());
+        if ((flags & FNAME) != 0) skipZeroTerminated();
+        if ((flags & FCOMMENT) != 0) skipZeroTerminated();
+        if ((flags & FHCRC) != 0) skipBytes(2);
+    }
+
+    private void readTrailer(Inflater inflater) throws IOException {
+        // The inflater leaves the buffer positioned directly after the deflate data
+        long expectedCrc = readUInt();
+        long expectedSize = readUInt();
+        if (expectedCrc != crc.getValue()) throw new ZipException("corrupt gzip trailer (crc mismatch)");
+        if (expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL))
+            throw new ZipException("corrupt gzip trailer (size mismatch)");
+
+        if (source != null && source.markSupported()) {
+            rewindToMemberEnd(source);
+            if (!peekMagic(source)) {
+                eof = true;
+                return;
+            }
+        }
+
+        // Anything other than another gzip member is trailing data and ignored (same as GZIPInputStream).
+        if (!input.hasRemaining() && !fill()) {
+            eof = true;
+            return;
+        }
+        try {
+            readHeader();
+        } catch (ZipException | EOFException e) {
+            eof = true;
+            return;
+        }
+        inflater.reset();
+        inflater.setInput(input);
+        crc.reset();
+    }
+
+    /**
+     * Refills the input buffer from the source stream, returning false if no more data is available.
+     */
+    private boolean fill() throws IOException {
+        if (source == null) return false;
+        // The buffer is only refilled once it is empty, so after a fill it holds exactly the bytes just read
+        if (source.markSupported()) source.mark(input.capacity());
+        input.compact();
+        try {
+            int read = source.read(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            lastRead = Math.max(read, 0);
+            if (read > 0) input.position(input.position() + read);
+            return read > 0;
+        } finally {
+            input.flip();
+        }
+    }
+
+    /**
+     * Moves a markable source back to directly after the current member, discarding the buffered bytes past it.
+     */
+    private void rewindToMemberEnd(InputStream source) throws IOException {
+        int surplus = input.remaining();
+        if (surplus == 0) return;
+        source.reset();
+        source.skipNBytes(lastRead - surplus);
+        input.position(input.limit());
+        lastRead = 0;
+    }
+
+    /**
+     * Returns true if the next bytes of a markable source are the gzip magic, without consuming them.
+     */
+    private static boolean peekMagic(InputStream source) throws IOException {
+        source.mark(2);
+        int b0 = source.read(), b1 = source.read();
+        source.reset();
+        return b0 != -1 && b1 != -1 && (b0 | (b1 << 8)) == GZIP_MAGIC;
+    }
+
+    private int readUByte() throws IOException {
+        if (!input.hasRemaining() && !fill()) throw new EOFException("unexpected end of gzip stream");
+        return input.get() & 0xFF;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByte() | (readUByte() << 8);
+    }
+
+    private long readUInt() throws IOException {
+        return ((long) readUShort()) | ((long) readUShort() << 16);
+    }
+
+    private void skipBytes(int n) throws IOException {
+        for (int i = 0; i < n; i++) readUByte();
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        int b;
+        do {
+            b = readUByte();
+        } while (b != 0);
+    }
+}
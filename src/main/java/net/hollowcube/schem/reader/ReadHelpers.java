@@ -1,12 +1,22 @@
 package net.hollowcube.schem.reader;
 
+import net.hollowcube.schem.util.BlockStateCache;
 import net.kyori.adventure.nbt.*;
 import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
-
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.time.Instant;
 import java.util.HashMap;
+import java.util.Map;
 
 final class ReadHelpers {
 
@@ -37,7 +47,19 @@ final class ReadHelpers {
         return new Vec(width, height, length);
     }
 
+    public static @Nullable String metadataString(CompoundBinaryTag metadata, String key) {
+        return metadata.get(key) instanceof StringBinaryTag value ? value.value() : null;
+    }
+
+    public static @Nullable Instant metadataInstant(CompoundBinaryTag metadata, String key) {
+        return metadata.get(key) instanceof LongBinaryTag value ? Instant.ofEpochMilli(value.value()) : null;
+    }
+
     public static Block readBlockState(CompoundBinaryTag tag) {
+        return BlockStateCache.global().get(tag, ReadHelpers::parseBlockState);
+    }
+
+    private static Block parseBlockState(CompoundBinaryTag tag) {
         var name = getRequired(tag, "Name", BinaryTagTypes.STRING).value();
         var block = Block.fromKey(name);
         assertTrue(block != null, "unknown block: {0}", name);
@@ -56,6 +78,41 @@ final class ReadHelpers {
         }
     }
 
+    public static Map.Entry<String, CompoundBinaryTag> readGzipRoot(ByteBuffer buffer) {
+        return readGzipRoot(buffer, NbtStreamReader.FieldHandler.NONE);
+    }
+
+    public static Map.Entry<String, CompoundBinaryTag> readGzipRoot(InputStream stream) {
+        return readGzipRoot(stream, NbtStreamReader.FieldHandler.NONE);
+    }
+
+    public static Map.Entry<String, CompoundBinaryTag> readGzipRoot(ByteBuffer buffer, NbtStreamReader.FieldHandler handler) {
+        try {
+            return readGzipRoot(new PooledGzipInputStream(buffer), handler);
+        } catch (IOException e) {
+            throw new SchematicReadException("failed to read root compound", e);
+        }
+    }
+
+    public static Map.Entry<String, CompoundBinaryTag> readGzipRoot(InputStream stream, NbtStreamReader.FieldHandler handler) {
+        try {
+            return readGzipRoot(new PooledGzipInputStream(stream), handler);
+        } catch (IOException e) {
+            throw new SchematicReadException("failed to read root compound", e);
+        }
+    }
+
+    private static Map.Entry<String, CompoundBinaryTag> readGzipRoot(
+            PooledGzipInputStream gzip, NbtStreamReader.FieldHandler handler
+    ) throws IOException {
+        try (gzip; var input = new DataInputStream(new BufferedInputStream(gzip))) {
+            var root = NbtStreamReader.readNamed(input, handler);
+            // Read through the gzip trailer, so a markable source is left directly after the schematic
+            input.transferTo(OutputStream.nullOutputStream());
+            return root;
+        }
+    }
+
     public static void unpackPalette(int[] out, long[] in, int bitsPerEntry) {
         assert in.length != 0 : "unpack input array is zero";
 
@@ -1,8 +1,17 @@
 package net.hollowcube.schem.reader;
 
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public interface SchematicReader {
 
@@ -32,4 +41,84 @@ public interface SchematicReader {
 
     Schematic read(byte[] data) throws IOException;
 
+    /**
+     * Reads a schematic from the given stream. The stream is not closed.
+     *
+     * <p>The default implementation buffers the entire stream before reading. The builtin readers decode directly
+     * from the stream instead, avoiding a heap copy of the compressed file. If the stream supports
+     * {@link InputStream#mark(int)} (eg a {@link java.io.BufferedInputStream}) they leave it directly after the end of
+     * the schematic, otherwise compressed formats may read up to 16 KiB past it.</p>
+     */
+    default Schematic read(InputStream stream) throws IOException {
+        return read(stream.readAllBytes());
+    }
+
+    /**
+     * Reads a schematic from the given channel, see {@link #read(InputStream)}. The channel is not closed.
+     */
+    default Schematic read(ReadableByteChannel channel) throws IOException {
+        return read(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Reads a schematic from the remaining bytes of the given buffer, without changing its position.
+     *
+     * <p>The builtin readers decompress directly from the buffer, so it may be a direct or memory mapped buffer
+     * without being copied to the heap first. The buffer is not retained by the returned schematic.</p>
+     */
+    default Schematic read(ByteBuffer buffer) throws IOException {
+        var data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return read(data);
+    }
+
+    /**
+     * Reads a schematic from the given file. The file is memory mapped for the duration of the read, and then
+     * unmapped before returning.
+     */
+    default Schematic read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var fileSize = channel.size();
+            // A single mapping is limited to 2gb as a ByteBuffer, which no reasonable schematic will exceed.
+            if (fileSize > Integer.MAX_VALUE) return read((ReadableByteChannel) channel);
+            try (var arena = Arena.ofConfined()) {
+                var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+                return read(mapped.asByteBuffer());
+            }
+        }
+    }
+
+    /**
+     * <p>Reads only the header of a schematic (name, author, size, offset, palette, etc) from the given data.</p>
+     *
+     * <p>The default implementation reads the entire schematic. The builtin readers skip over the block data, block
+     * entities, entities and biomes while streaming instead of decoding them.</p>
+     */
+    default SchematicHeader readHeader(byte[] data) throws IOException {
+        return readHeader(ByteBuffer.wrap(data));
+    }
+
+    default SchematicHeader readHeader(InputStream stream) throws IOException {
+        return SchematicHeader.of(read(stream));
+    }
+
+    default SchematicHeader readHeader(ByteBuffer buffer) throws IOException {
+        return SchematicHeader.of(read(buffer));
+    }
+
+    /**
+     * Reads only the header of the given file, see {@link #readHeader(byte[])}. The file is memory mapped for the
+     * duration of the read.
+     */
+    default SchematicHeader readHeader(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) return readHeader(Channels.newInputStream(channel));
+            try (var arena = Arena.ofConfined()) {
+                var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+                return readHeader(mapped.asByteBuffer());
+            }
+        }
+    }
+
 }
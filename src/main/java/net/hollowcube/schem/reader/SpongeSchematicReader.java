@@ -1,9 +1,13 @@
 package net.hollowcube.schem.reader;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.hollowcube.schem.BlockEntityData;
+import net.hollowcube.schem.BlockStorage;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
 import net.hollowcube.schem.SpongeSchematic;
+import net.hollowcube.schem.util.BlockStateCache;
 import net.hollowcube.schem.util.GameDataProvider;
 import net.kyori.adventure.nbt.*;
 import net.minestom.server.command.builder.arguments.minecraft.ArgumentBlockState;
@@ -11,12 +15,16 @@ import net.minestom.server.command.builder.exception.ArgumentSyntaxException;
 import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayInputStream;
+import java.io.DataInput;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.hollowcube.schem.reader.ReadHelpers.*;
 import static net.hollowcube.schem.util.CoordinateUtil.blockIndex;
@@ -30,84 +38,68 @@ final class SpongeSchematicReader implements SchematicReader {
     private static final int MIN_VERSION = 1;
     private static final int MAX_VERSION = 3;
 
+    // The largest fields, none of which are needed for the header. V1 and V2 fields are at the root, V3 are nested.
+    static final Set<String> HEADER_SKIPPED = Set.of(
+            "BlockData", "BiomeData", "TileEntities", "BlockEntities", "Entities",
+            "Schematic.Blocks.Data", "Schematic.Blocks.BlockEntities", "Schematic.Biomes.Data", "Schematic.Entities"
+    );
+
     private final GameDataProvider gameData = GameDataProvider.provider();
 
     @Override
     public Schematic read(byte[] data) throws SchematicReadException {
-        try {
-            return read(BinaryTagIO.reader().readNamed(
-                    new ByteArrayInputStream(data),
-                    BinaryTagIO.Compression.GZIP
-            ));
-        } catch (IOException e) {
-            throw new SchematicReadException("failed to read root compound", e);
-        }
+        return read(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public Schematic read(ByteBuffer buffer) throws SchematicReadException {
+        var arrays = new StreamedArrays();
+        return read(readGzipRoot(buffer, arrays), arrays);
+    }
+
+    @Override
+    public Schematic read(InputStream stream) throws SchematicReadException {
+        var arrays = new StreamedArrays();
+        return read(readGzipRoot(stream, arrays), arrays);
     }
 
     public Schematic read(Map.Entry<String, CompoundBinaryTag> rootPair) {
-        var root = rootPair.getValue();
-        if ("".equals(rootPair.getKey())) {
-            // V3 has the root tag as "", with "Schematic" embedded inside.
-            root = getRequired(root, "Schematic", BinaryTagTypes.COMPOUND);
-        } else {
-            // V1,2 should have the root tag as "Schematic"
-            assertTrue("Schematic".equals(rootPair.getKey()), "missing required root tag 'Schematic'");
-        }
+        return read(rootPair, new StreamedArrays());
+    }
 
-        int version = root.getInt("Version");
-        if (version == 0) version = 1; // Version 0 is not a valid version, but it is used in some old schematics
-        assertTrue(version >= MIN_VERSION && version <= MAX_VERSION,
-                "unsupported schematic version {0}", version);
-        int dataVersion = root.getInt("DataVersion");
-        assertTrue(dataVersion >= 0, "invalid data version {0}", dataVersion);
-        int dataVersionMax = gameData.dataVersion();
+    @Override
+    public SchematicHeader readHeader(ByteBuffer buffer) throws SchematicReadException {
+        return readHeader(readGzipRoot(buffer, new NbtStreamReader.Skipping(HEADER_SKIPPED::contains)));
+    }
 
-        var metadata = root.getCompound("Metadata"); // Optional, default of empty map is fine
+    @Override
+    public SchematicHeader readHeader(InputStream stream) throws SchematicReadException {
+        return readHeader(readGzipRoot(stream, new NbtStreamReader.Skipping(HEADER_SKIPPED::contains)));
+    }
 
-        var width = getRequired(root, "Width", BinaryTagTypes.SHORT).value();
-        assertTrue(width > 0, "invalid width {0}", width);
-        var height = getRequired(root, "Height", BinaryTagTypes.SHORT).value();
-        assertTrue(height > 0, "invalid height {0}", height);
-        var length = getRequired(root, "Length", BinaryTagTypes.SHORT).value();
-        assertTrue(length > 0, "invalid length {0}", length);
-        Point size = new Vec(width, height, length);
+    SchematicHeader readHeader(Map.Entry<String, CompoundBinaryTag> rootPair) {
+        return readHeader(unwrapRoot(rootPair));
+    }
 
-        var offset = root.keySet().contains("Offset") ? getRequiredPoint(root, "Offset") : Vec.ZERO;
-        if (version < 3 && metadata.keySet().contains("WEOffsetX")) {
-            // Offset is the relative offset when creating the schematic, however worldedit sets this to the
-            // world position it was created. In reality, we want the position relative to the player position
-            // which is set in WEOffsetX|Y|Z for worldedit (and most compatible editors).
-            // This was fixed in version 3, where the offset is always relative to the player position and WEOffset is gone.
-            var x = getRequired(metadata, "WEOffsetX", BinaryTagTypes.INT);
-            var y = getRequired(metadata, "WEOffsetY", BinaryTagTypes.INT);
-            var z = getRequired(metadata, "WEOffsetZ", BinaryTagTypes.INT);
-            offset = new Vec(x.value(), y.value(), z.value());
-        }
+    Schematic read(Map.Entry<String, CompoundBinaryTag> rootPair, StreamedArrays arrays) {
+        var spongeRoot = unwrapRoot(rootPair);
+        var root = spongeRoot.root();
+        int version = spongeRoot.version();
+        int dataVersion = spongeRoot.dataVersion();
+        int dataVersionMax = gameData.dataVersion();
+
+        var header = readHeader(spongeRoot);
+        var metadata = header.metadata();
+        var size = header.size();
+        var offset = header.offset();
+        var blockPalette = header.blockPalette();
 
         // === Block data ===
-        Block[] blockPalette;
         byte[] blockData;
-        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>();
+        List<BlockEntityData> blockEntityList = new ArrayList<>();
         if (version < 3) {
-            var blockPaletteMax = root.getInt("PaletteMax", -1);
-            // Note(matt): I am aware that Palette is not required, and it should fall back to the global palette
-            // if not present. However, this is not currently implemented as there is no way to support upgrading
-            // the block ids currently.
-            var blockPaletteObject = getRequired(root, "Palette", BinaryTagTypes.COMPOUND);
-            blockPalette = new Block[blockPaletteMax < 1 ? blockPaletteObject.size() : blockPaletteMax];
-            for (var entry : blockPaletteObject) {
-                assertTrue(entry.getValue().type() == BinaryTagTypes.INT, "expected palette entry to be an int");
-                var paletteId = ((IntBinaryTag) entry.getValue()).value();
-                try {
-                    String blockState = entry.getKey();
-                    if (dataVersion < dataVersionMax)
-                        blockState = gameData.upgradeBlockState(dataVersion, dataVersionMax, blockState);
-                    blockPalette[paletteId] = ArgumentBlockState.staticParse(blockState);
-                } catch (ArgumentSyntaxException e) {
-                    throw new IllegalStateException("invalid block type: " + entry.getKey(), e);
-                }
-            }
-            blockData = getRequired(root, "BlockData", BinaryTagTypes.BYTE_ARRAY).value();
+            blockData = arrays.blockData != null ? arrays.blockData
+                    : getRequired(root, "BlockData", BinaryTagTypes.BYTE_ARRAY).value();
 
             // === Block entities ===
             var tileEntities = root.getList(version == 1 ? "TileEntities" : "BlockEntities", BinaryTagTypes.COMPOUND);
@@ -125,49 +117,29 @@ final class SpongeSchematicReader implements SchematicReader {
                     extracted.put(entry.getKey(), entry.getValue());
                 }
 
-                var blockEntityData = extracted.build();
-                if (dataVersion < dataVersionMax)
-                    blockEntityData = gameData.upgradeBlockEntity(dataVersion, dataVersionMax, id.value(), blockEntityData);
-                blockEntities.put(blockIndex(size, pos), new BlockEntityData(id.value(), pos, blockEntityData));
+                blockEntityList.add(new BlockEntityData(id.value(), pos, extracted.build()));
             }
         } else {
             var blocksContainer = root.getCompound("Blocks");
-            var blockPaletteObject = getRequired(blocksContainer, "Palette", BinaryTagTypes.COMPOUND);
-            blockPalette = new Block[blockPaletteObject.size()];
-            for (var entry : blockPaletteObject) {
-                assertTrue(entry.getValue().type() == BinaryTagTypes.INT, "expected palette entry to be an int");
-                var paletteId = ((IntBinaryTag) entry.getValue()).value();
-                var blockState = entry.getKey();
-                if (dataVersion < dataVersionMax)
-                    blockState = gameData.upgradeBlockState(dataVersion, dataVersionMax, blockState);
-                var block = ArgumentBlockState.staticParse(blockState);
-
-                // Increase the palette size if the input object has missing indices (dumb)
-                if (paletteId >= blockPalette.length) {
-                    var newPalette = new Block[paletteId + 1];
-                    System.arraycopy(blockPalette, 0, newPalette, 0, blockPalette.length);
-                    blockPalette = newPalette;
-                }
-
-                blockPalette[paletteId] = block;
-            }
-            for (int i = 0; i < blockPalette.length; i++) {
-                if (blockPalette[i] == null) blockPalette[i] = Block.AIR;
-            }
-            blockData = getRequired(blocksContainer, "Data", BinaryTagTypes.BYTE_ARRAY).value();
+            blockData = arrays.blockData != null ? arrays.blockData
+                    : getRequired(blocksContainer, "Data", BinaryTagTypes.BYTE_ARRAY).value();
 
             // === Block entities ===
             for (var blockEntityTag : blocksContainer.getList("BlockEntities", BinaryTagTypes.COMPOUND)) {
                 var blockEntity = (CompoundBinaryTag) blockEntityTag;
                 var id = getRequired(blockEntity, "Id", BinaryTagTypes.STRING);
                 var pos = getRequiredPoint(blockEntity, "Pos");
-                var data = blockEntity.getCompound("Data");
-                if (dataVersion < gameData.dataVersion())
-                    data = gameData.upgradeBlockEntity(dataVersion, gameData.dataVersion(), id.value(), data);
-                blockEntities.put(blockIndex(size, pos), new BlockEntityData(id.value(), pos, data));
+                blockEntityList.add(new BlockEntityData(id.value(), pos, blockEntity.getCompound("Data")));
             }
         }
 
+        // Block entities are upgraded as one batch
+        if (dataVersion < dataVersionMax && !blockEntityList.isEmpty())
+            blockEntityList = gameData.upgradeBlockEntities(dataVersion, dataVersionMax, blockEntityList);
+        var blockEntities = new Int2ObjectArrayMap<BlockEntityData>(blockEntityList.size());
+        for (var blockEntity : blockEntityList)
+            blockEntities.put(blockIndex(size, blockEntity.position()), blockEntity);
+
         // === Biome Data ===
         String[] biomePalette = new String[0];
         byte[] biomeData = new byte[0];
@@ -180,7 +152,7 @@ final class SpongeSchematicReader implements SchematicReader {
                 biomePalette[paletteId] = entry.getKey();
                 //todo for version 2 -> 3 i need to inflate the data to 3d.
             }
-            biomeData = root.getByteArray("BiomeData");
+            biomeData = arrays.biomeData != null ? arrays.biomeData : root.getByteArray("BiomeData");
         } else if (version >= 3) {
             var biomesContainer = root.getCompound("Biomes");
             var biomePaletteObject = biomesContainer.getCompound("Palette");
@@ -189,26 +161,172 @@ final class SpongeSchematicReader implements SchematicReader {
                 var paletteId = ((IntBinaryTag) entry.getValue()).value();
                 biomePalette[paletteId] = entry.getKey();
             }
-            biomeData = biomesContainer.getByteArray("Data");
+            biomeData = arrays.biomeData != null ? arrays.biomeData : biomesContainer.getByteArray("Data");
         }
 
         // === Entities ===
-        var entities = new ArrayList<CompoundBinaryTag>();
+        List<CompoundBinaryTag> entities = new ArrayList<>();
         if (version > 1) {
-            for (var entityTag : root.getList("Entities", BinaryTagTypes.COMPOUND)) {
-                var entity = (CompoundBinaryTag) entityTag;
-                if (dataVersion < gameData.dataVersion())
-                    entity = gameData.upgradeEntity(dataVersion, gameData.dataVersion(), entity);
-                entities.add(entity);
-            }
+            for (var entityTag : root.getList("Entities", BinaryTagTypes.COMPOUND))
+                entities.add((CompoundBinaryTag) entityTag);
+            if (dataVersion < dataVersionMax && !entities.isEmpty())
+                entities = gameData.upgradeEntities(dataVersion, dataVersionMax, entities);
+        }
+
+        final BlockStorage blockStorage;
+        try {
+            blockStorage = BlockStorage.fromVarInts(size, blockPalette.size(), blockData);
+        } catch (IllegalArgumentException e) {
+            throw new SchematicReadException("invalid block data", e);
         }
 
         return new SpongeSchematic(
                 metadata, size, offset,
-                List.of(blockPalette), ByteArrayBinaryTag.byteArrayBinaryTag(blockData),
+                blockPalette, blockStorage,
                 List.of(biomePalette), ByteArrayBinaryTag.byteArrayBinaryTag(biomeData),
                 blockEntities, entities
         );
     }
 
+    private record SpongeRoot(CompoundBinaryTag root, int version, int dataVersion) {
+    }
+
+    private static SpongeRoot unwrapRoot(Map.Entry<String, CompoundBinaryTag> rootPair) {
+        var root = rootPair.getValue();
+        if ("".equals(rootPair.getKey())) {
+            // V3 has the root tag as "", with "Schematic" embedded inside.
+            root = getRequired(root, "Schematic", BinaryTagTypes.COMPOUND);
+        } else {
+            // V1,2 should have the root tag as "Schematic"
+            assertTrue("Schematic".equals(rootPair.getKey()), "missing required root tag 'Schematic'");
+        }
+
+        int version = root.getInt("Version");
+        if (version == 0) version = 1; // Version 0 is not a valid version, but it is used in some old schematics
+        assertTrue(version >= MIN_VERSION && version <= MAX_VERSION,
+                "unsupported schematic version {0}", version);
+        int dataVersion = root.getInt("DataVersion");
+        assertTrue(dataVersion >= 0, "invalid data version {0}", dataVersion);
+        return new SpongeRoot(root, version, dataVersion);
+    }
+
+    /**
+     * Reads the metadata, size, offset and block palette, none of which depend on the block data.
+     */
+    private SchematicHeader readHeader(SpongeRoot spongeRoot) {
+        var root = spongeRoot.root();
+        int version = spongeRoot.version();
+
+        var metadata = root.getCompound("Metadata"); // Optional, default of empty map is fine
+
+        var width = getRequired(root, "Width", BinaryTagTypes.SHORT).value();
+        assertTrue(width > 0, "invalid width {0}", width);
+        var height = getRequired(root, "Height", BinaryTagTypes.SHORT).value();
+        assertTrue(height > 0, "invalid height {0}", height);
+        var length = getRequired(root, "Length", BinaryTagTypes.SHORT).value();
+        assertTrue(length > 0, "invalid length {0}", length);
+        Point size = new Vec(width, height, length);
+
+        var offset = root.keySet().contains("Offset") ? getRequiredPoint(root, "Offset") : Vec.ZERO;
+        if (version < 3 && metadata.keySet().contains("WEOffsetX")) {
+            // Offset is the relative offset when creating the schematic, however worldedit sets this to the
+            // world position it was created. In reality, we want the position relative to the player position
+            // which is set in WEOffsetX|Y|Z for worldedit (and most compatible editors).
+            // This was fixed in version 3, where the offset is always relative to the player position and WEOffset is gone.
+            var x = getRequired(metadata, "WEOffsetX", BinaryTagTypes.INT);
+            var y = getRequired(metadata, "WEOffsetY", BinaryTagTypes.INT);
+            var z = getRequired(metadata, "WEOffsetZ", BinaryTagTypes.INT);
+            offset = new Vec(x.value(), y.value(), z.value());
+        }
+
+        final Block[] blockPalette;
+        if (version < 3) {
+            var blockPaletteMax = root.getInt("PaletteMax", -1);
+            // Note(matt): I am aware that Palette is not required, and it should fall back to the global palette
+            // if not present. However, this is not currently implemented as there is no way to support upgrading
+            // the block ids currently.
+            var blockPaletteObject = getRequired(root, "Palette", BinaryTagTypes.COMPOUND);
+            blockPalette = readBlockPalette(blockPaletteObject, blockPaletteMax, spongeRoot.dataVersion(), gameData.dataVersion());
+        } else {
+            var blockPaletteObject = getRequired(root.getCompound("Blocks"), "Palette", BinaryTagTypes.COMPOUND);
+            blockPalette = readBlockPalette(blockPaletteObject, -1, spongeRoot.dataVersion(), gameData.dataVersion());
+        }
+
+        return new SchematicHeader(
+                SchematicHeader.Format.SPONGE, metadata,
+                metadataString(metadata, "Name"), metadataString(metadata, "Author"), metadataInstant(metadata, "Date"),
+                size, offset, List.of(blockPalette)
+        );
+    }
+
+    /**
+     * Reads a block palette object (state string to palette id), upgrading every state as a single batch. Any
+     * missing palette ids are filled with air.
+     */
+    private Block[] readBlockPalette(CompoundBinaryTag paletteObject, int paletteMax, int dataVersion, int dataVersionMax) {
+        List<String> blockStates = new ArrayList<>(paletteObject.size());
+        var paletteIds = new IntArrayList(paletteObject.size());
+        int paletteSize = Math.max(paletteMax, paletteObject.size());
+        for (var entry : paletteObject) {
+            assertTrue(entry.getValue().type() == BinaryTagTypes.INT, "expected palette entry to be an int");
+            var paletteId = ((IntBinaryTag) entry.getValue()).value();
+            assertTrue(paletteId >= 0, "invalid palette id {0}", paletteId);
+            blockStates.add(entry.getKey());
+            paletteIds.add(paletteId);
+            // Increase the palette size if the input object has missing indices (dumb)
+            paletteSize = Math.max(paletteSize, paletteId + 1);
+        }
+
+        var upgradedStates = blockStates;
+        if (dataVersion < dataVersionMax && !blockStates.isEmpty())
+            upgradedStates = gameData.upgradeBlockStates(dataVersion, dataVersionMax, blockStates);
+
+        var blockPalette = new Block[paletteSize];
+        for (int i = 0; i < upgradedStates.size(); i++) {
+            try {
+                blockPalette[paletteIds.getInt(i)] = BlockStateCache.global().get(upgradedStates.get(i), ArgumentBlockState::staticParse);
+            } catch (ArgumentSyntaxException e) {
+                throw new SchematicReadException("invalid block type: " + blockStates.get(i), e);
+            }
+        }
+        for (int i = 0; i < blockPalette.length; i++) {
+            if (blockPalette[i] == null) blockPalette[i] = Block.AIR;
+        }
+        return blockPalette;
+    }
+
+    /**
+     * Collects the block and biome data arrays straight from the stream rather than into the tag tree. These are
+     * by far the largest fields, so this avoids holding them in a tag and then copying them out again.
+     */
+    static final class StreamedArrays implements NbtStreamReader.FieldHandler {
+        private byte @Nullable [] blockData;
+        private byte @Nullable [] biomeData;
+
+        @Override
+        public boolean handle(String path, BinaryTagType<? extends BinaryTag> type, DataInput input) throws IOException {
+            if (type != BinaryTagTypes.BYTE_ARRAY) return false;
+            switch (path) {
+                // V1, V2
+                case "BlockData" -> blockData = readByteArray(input);
+                case "BiomeData" -> biomeData = readByteArray(input);
+                // V3
+                case "Schematic.Blocks.Data" -> blockData = readByteArray(input);
+                case "Schematic.Biomes.Data" -> biomeData = readByteArray(input);
+                default -> {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte[] readByteArray(DataInput input) throws IOException {
+            var length = input.readInt();
+            assertTrue(length >= 0, "invalid byte array length {0}", length);
+            var array = new byte[length];
+            input.readFully(array);
+            return array;
+        }
+    }
+
 }
@@ -2,34 +2,68 @@ package net.hollowcube.schem.reader;
 
 import net.hollowcube.schem.BlockEntityData;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
 import net.hollowcube.schem.Structure;
-import net.kyori.adventure.nbt.BinaryTagIO;
 import net.kyori.adventure.nbt.BinaryTagTypes;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.kyori.adventure.nbt.ListBinaryTag;
 import net.minestom.server.coordinate.BlockVec;
 import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.hollowcube.schem.reader.ReadHelpers.*;
 
 final class StructureReader implements SchematicReader {
+    static final Set<String> HEADER_SKIPPED = Set.of("blocks", "entities", "Entities");
 
     @Override
     public Schematic read(byte[] data) throws SchematicReadException {
-        try {
-            return read(BinaryTagIO.reader().readNamed(
-                    new ByteArrayInputStream(data),
-                    BinaryTagIO.Compression.GZIP
-            ));
-        } catch (IOException e) {
-            throw new SchematicReadException("failed to read root compound", e);
+        return read(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public Schematic read(ByteBuffer buffer) throws SchematicReadException {
+        return read(readGzipRoot(buffer));
+    }
+
+    @Override
+    public Schematic read(InputStream stream) throws SchematicReadException {
+        return read(readGzipRoot(stream));
+    }
+
+    @Override
+    public SchematicHeader readHeader(ByteBuffer buffer) throws SchematicReadException {
+        return readHeader(readGzipRoot(buffer, new NbtStreamReader.Skipping(HEADER_SKIPPED::contains)));
+    }
+
+    @Override
+    public SchematicHeader readHeader(InputStream stream) throws SchematicReadException {
+        return readHeader(readGzipRoot(stream, new NbtStreamReader.Skipping(HEADER_SKIPPED::contains)));
+    }
+
+    SchematicHeader readHeader(Map.Entry<String, CompoundBinaryTag> rootPair) {
+        assertTrue("".equals(rootPair.getKey()), "root tag must be empty, was: '{0}'", rootPair.getKey());
+        var root = rootPair.getValue();
+        getRequired(root, "DataVersion", BinaryTagTypes.INT);
+
+        var size = getRequiredPoint(root, "size");
+        // Only the first palette is reported, any others are variants of it. Air is added to the end if missing, the
+        // same as Structure#blockPalette since positions without a block are air.
+        var palette = readPalettes(root).getFirst();
+        if (!List.of(palette).contains(Block.AIR)) {
+            palette = Arrays.copyOf(palette, palette.length + 1);
+            palette[palette.length - 1] = Block.AIR;
         }
+        return new SchematicHeader(SchematicHeader.Format.STRUCTURE, CompoundBinaryTag.empty(), size, Vec.ZERO, List.of(palette));
     }
 
     public static Point getRequiredPoint(CompoundBinaryTag tag, String key) {
@@ -47,6 +81,41 @@ final class StructureReader implements SchematicReader {
         var size = getRequiredPoint(root, "size");
 
         // === Palettes ===
+        var palettes = readPalettes(root);
+        int paletteSize = palettes.getFirst().length;
+
+        // === Blocks ===
+        var builder = Structure.builder(size, palettes);
+        for (var block : root.getList("blocks", BinaryTagTypes.COMPOUND)) {
+            var blockCompound = (CompoundBinaryTag) block;
+            var pos = getRequiredPoint(blockCompound, "pos");
+            assertTrue(pos.blockX() >= 0 && pos.blockX() < size.blockX()
+                            && pos.blockY() >= 0 && pos.blockY() < size.blockY()
+                            && pos.blockZ() >= 0 && pos.blockZ() < size.blockZ(),
+                    "block position {0} is outside of the structure", pos);
+            var state = getRequired(blockCompound, "state", BinaryTagTypes.INT).value();
+            assertTrue(state >= 0 && state < paletteSize, "invalid palette index {0}", state);
+
+            BlockEntityData blockEntity = null;
+            if (blockCompound.get("nbt") instanceof CompoundBinaryTag nbt) {
+                var id = getRequired(nbt, "id", BinaryTagTypes.STRING).value();
+                blockEntity = new BlockEntityData(id, pos, nbt.remove("id"));
+            }
+
+            builder.block(pos.blockX(), pos.blockY(), pos.blockZ(), state, blockEntity);
+        }
+
+        // === Entities ===
+        // Vanilla writes "entities", some older tools wrote "Entities"
+        var entities = root.getList(root.keySet().contains("entities") ? "entities" : "Entities", BinaryTagTypes.COMPOUND);
+        for (var entity : entities) {
+            builder.entity((CompoundBinaryTag) entity);
+        }
+
+        return builder.build();
+    }
+
+    private static List<Block[]> readPalettes(CompoundBinaryTag root) {
         int paletteSize = -1;
         var palettes = new ArrayList<Block[]>();
         var singlePalette = root.getList("palette", BinaryTagTypes.COMPOUND);
@@ -70,30 +139,6 @@ final class StructureReader implements SchematicReader {
             }
         }
         assertTrue(paletteSize > 0, "palette(s) must be provided");
-
-        // === Blocks ===
-        var blocks = new ArrayList<Structure.BlockInfo>();
-        for (var block : root.getList("blocks", BinaryTagTypes.COMPOUND)) {
-            var blockCompound = (CompoundBinaryTag) block;
-            var pos = getRequiredPoint(blockCompound, "pos");
-            var state = getRequired(blockCompound, "state", BinaryTagTypes.INT).value();
-            assertTrue(state >= 0 && state < paletteSize, "invalid palette index {0}", state);
-
-            BlockEntityData blockEntity = null;
-            if (blockCompound.get("nbt") instanceof CompoundBinaryTag nbt) {
-                var id = getRequired(nbt, "id", BinaryTagTypes.STRING).value();
-                blockEntity = new BlockEntityData(id, pos, nbt.remove("id"));
-            }
-
-            blocks.add(new Structure.BlockInfo(pos, state, blockEntity));
-        }
-
-        // === Entities ===
-        var entities = new ArrayList<CompoundBinaryTag>();
-        for (var entity : root.getList("Entities", BinaryTagTypes.COMPOUND)) {
-            entities.add((CompoundBinaryTag) entity);
-        }
-
-        return new Structure(size, blocks, palettes, entities);
+        return palettes;
     }
 }
@@ -0,0 +1,84 @@
+package net.hollowcube.schem.util;
+
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.minestom.server.instance.block.Block;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * <p>A thread-safe cache of parsed block states, keyed by either the block state string (eg
+ * {@code minecraft:oak_stairs[facing=east]}) or the NBT compound ({@code Name} and {@code Properties}) that it was
+ * parsed from.</p>
+ *
+ * <p>The cache is bounded: once it reaches its maximum size it is cleared, since the set of states in use at any
+ * time is usually far smaller than the limit. All builtin readers share the {@link #global()} instance.</p>
+ */
+public final class BlockStateCache {
+    public static final int DEFAULT_MAX_SIZE = 8192;
+
+    private static final BlockStateCache GLOBAL = new BlockStateCache(DEFAULT_MAX_SIZE);
+
+    public static BlockStateCache global() {
+        return GLOBAL;
+    }
+
+    private final Map<Object, Block> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BlockStateCache(int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("max size must be at least 1: " + maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached block for the given state string, parsing it with {@code parser} if absent. Exceptions
+     * thrown by the parser are propagated and nothing is cached.
+     */
+    public Block get(String blockState, Function<String, Block> parser) {
+        return get0(blockState, parser);
+    }
+
+    /**
+     * Returns the cached block for the given state compound, parsing it with {@code parser} if absent. Exceptions
+     * thrown by the parser are propagated and nothing is cached.
+     */
+    public Block get(CompoundBinaryTag blockState, Function<CompoundBinaryTag, Block> parser) {
+        return get0(blockState, parser);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private <K> Block get0(K key, Function<K, Block> parser) {
+        var block = cache.get(key);
+        if (block != null) {
+            hits.increment();
+            return block;
+        }
+
+        misses.increment();
+        block = parser.apply(key);
+        if (cache.size() >= maxSize) cache.clear();
+        cache.putIfAbsent(key, block);
+        return block;
+    }
+}
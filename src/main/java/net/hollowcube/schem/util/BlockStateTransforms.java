@@ -0,0 +1,192 @@
+package net.hollowcube.schem.util;
+
+import net.minestom.server.instance.block.Block;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed tables mapping every block state id to its rotated and mirrored state id. The tables are built from the
+ * block registry the first time they are used.
+ *
+ * <p>Handles the {@code facing}, {@code axis}, {@code rotation}, connection ({@code north}, {@code east}, etc),
+ * stair {@code shape}, rail {@code shape}, {@code hinge} and chest {@code type} properties.</p>
+ */
+final class BlockStateTransforms {
+    private static final String[] HORIZONTAL = {"north", "east", "south", "west"};
+
+    private static final class Holder {
+        static final BlockStateTransforms INSTANCE = new BlockStateTransforms();
+    }
+
+    static BlockStateTransforms get() {
+        return Holder.INSTANCE;
+    }
+
+    // Indexed by Rotation#ordinal, then state id
+    private final int[][] rotations = new int[4][];
+    // Indexed by Axis#ordinal, then state id
+    private final int[][] mirrors = new int[3][];
+
+    private BlockStateTransforms() {
+        int maxStateId = 0;
+        for (var block : Block.values()) {
+            for (var state : block.possibleStates())
+                maxStateId = Math.max(maxStateId, state.stateId());
+        }
+
+        var identity = new int[maxStateId + 1];
+        for (int i = 0; i < identity.length; i++) identity[i] = i;
+
+        rotations[Rotation.NONE.ordinal()] = identity;
+        var clockwise90 = rotations[Rotation.CLOCKWISE_90.ordinal()] = identity.clone();
+        for (var axis : Axis.values()) mirrors[axis.ordinal()] = identity.clone();
+
+        for (var block : Block.values()) {
+            for (var state : block.possibleStates()) {
+                var properties = state.properties();
+                if (properties.isEmpty()) continue;
+
+                clockwise90[state.stateId()] = transform(state, rotate90(properties));
+                for (var axis : Axis.values())
+                    mirrors[axis.ordinal()][state.stateId()] = transform(state, mirror(properties, axis));
+            }
+        }
+
+        var clockwise180 = rotations[Rotation.CLOCKWISE_180.ordinal()] = new int[identity.length];
+        var clockwise270 = rotations[Rotation.CLOCKWISE_270.ordinal()] = new int[identity.length];
+        for (int i = 0; i < identity.length; i++) {
+            clockwise180[i] = clockwise90[clockwise90[i]];
+            clockwise270[i] = clockwise90[clockwise180[i]];
+        }
+    }
+
+    int rotate(int stateId, Rotation rotation) {
+        var table = rotations[rotation.ordinal()];
+        return stateId >= 0 && stateId < table.length ? table[stateId] : stateId;
+    }
+
+    int mirror(int stateId, Axis axis) {
+        var table = mirrors[axis.ordinal()];
+        return stateId >= 0 && stateId < table.length ? table[stateId] : stateId;
+    }
+
+    private static int transform(Block state, Map<String, String> properties) {
+        if (properties.equals(state.properties())) return state.stateId();
+        try {
+            return state.withProperties(properties).stateId();
+        } catch (IllegalArgumentException e) {
+            // Some value is not valid for this block (eg a facing which cannot point in the new direction)
+            return state.stateId();
+        }
+    }
+
+    private static Map<String, String> rotate90(Map<String, String> properties) {
+        var result = new HashMap<>(properties);
+        for (var entry : properties.entrySet()) {
+            var key = entry.getKey();
+            var value = entry.getValue();
+            switch (key) {
+                case "facing" -> result.put(key, rotateDirection(value));
+                case "axis" -> result.put(key, value.equals("x") ? "z" : value.equals("z") ? "x" : value);
+                case "rotation" -> result.put(key, String.valueOf((Integer.parseInt(value) + 4) % 16));
+                case "shape" -> result.put(key, rotateRailShape(value));
+                default -> {
+                    int index = indexOf(key);
+                    // A connection property moves to the next direction clockwise
+                    if (index != -1) result.put(HORIZONTAL[(index + 1) % 4], value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, String> mirror(Map<String, String> properties, Axis axis) {
+        var result = new HashMap<>(properties);
+        for (var entry : properties.entrySet()) {
+            var key = entry.getKey();
+            var value = entry.getValue();
+            switch (key) {
+                case "facing" -> result.put(key, mirrorDirection(value, axis));
+                case "rotation" -> {
+                    // 0 is south, 4 west, 8 north and 12 east
+                    int rotation = Integer.parseInt(value);
+                    if (axis == Axis.X) result.put(key, String.valueOf((16 - rotation) % 16));
+                    else if (axis == Axis.Z) result.put(key, String.valueOf((24 - rotation) % 16));
+                }
+                case "shape" -> {
+                    // Stair shapes are relative to their facing, so any horizontal mirror flips left and right
+                    if (axis == Axis.Y) continue;
+                    if (value.endsWith("_left")) result.put(key, value.replace("_left", "_right"));
+                    else if (value.endsWith("_right")) result.put(key, value.replace("_right", "_left"));
+                    else result.put(key, mirrorRailShape(value, axis));
+                }
+                case "hinge" -> {
+                    if (axis != Axis.Y) result.put(key, swap(value, "left", "right"));
+                }
+                case "type" -> result.put(key, axis == Axis.Y ? swap(value, "top", "bottom") : swap(value, "left", "right"));
+                case "half" -> {
+                    if (axis == Axis.Y) result.put(key, swap(value, "top", "bottom"));
+                }
+                case "up", "down" -> {
+                    // Walls have only an up property (the center post), so only swap when both are present
+                    if (axis == Axis.Y && properties.containsKey("up") && properties.containsKey("down"))
+                        result.put(key.equals("up") ? "down" : "up", value);
+                }
+                default -> {
+                    int index = indexOf(key);
+                    if (index != -1) result.put(mirrorDirection(key, axis), value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String rotateDirection(String direction) {
+        int index = indexOf(direction);
+        return index == -1 ? direction : HORIZONTAL[(index + 1) % 4];
+    }
+
+    private static String mirrorDirection(String direction, Axis axis) {
+        return switch (axis) {
+            case X -> swap(direction, "east", "west");
+            case Y -> swap(direction, "up", "down");
+            case Z -> swap(direction, "north", "south");
+        };
+    }
+
+    private static String rotateRailShape(String shape) {
+        if (shape.startsWith("ascending_"))
+            return "ascending_" + rotateDirection(shape.substring("ascending_".length()));
+        var parts = shape.split("_");
+        if (parts.length != 2 || indexOf(parts[0]) == -1 || indexOf(parts[1]) == -1) return shape;
+        return railShape(rotateDirection(parts[0]), rotateDirection(parts[1]));
+    }
+
+    private static String mirrorRailShape(String shape, Axis axis) {
+        if (shape.startsWith("ascending_"))
+            return "ascending_" + mirrorDirection(shape.substring("ascending_".length()), axis);
+        var parts = shape.split("_");
+        if (parts.length != 2 || indexOf(parts[0]) == -1 || indexOf(parts[1]) == -1) return shape;
+        return railShape(mirrorDirection(parts[0], axis), mirrorDirection(parts[1], axis));
+    }
+
+    // Rail shapes always name north/south before east/west, eg north_east, north_south, east_west
+    private static String railShape(String a, String b) {
+        boolean aNorthSouth = a.equals("north") || a.equals("south");
+        boolean bNorthSouth = b.equals("north") || b.equals("south");
+        if (aNorthSouth == bNorthSouth) return aNorthSouth ? "north_south" : "east_west";
+        return aNorthSouth ? a + "_" + b : b + "_" + a;
+    }
+
+    private static String swap(String value, String a, String b) {
+        return value.equals(a) ? b : value.equals(b) ? a : value;
+    }
+
+    private static int indexOf(String direction) {
+        for (int i = 0; i < HORIZONTAL.length; i++) {
+            if (HORIZONTAL[i].equals(direction)) return i;
+        }
+        return -1;
+    }
+}
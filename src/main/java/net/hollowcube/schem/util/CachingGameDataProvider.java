@@ -0,0 +1,89 @@
+package net.hollowcube.schem.util;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.hollowcube.schem.BlockEntityData;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class CachingGameDataProvider implements GameDataProvider {
+    private static final int MAX_SIZE = 8192;
+
+    private record Key(int fromVersion, int toVersion, String blockState) {
+    }
+
+    private final GameDataProvider delegate;
+    private final Map<Key, String> blockStates = new ConcurrentHashMap<>();
+
+    CachingGameDataProvider(GameDataProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public int dataVersion() {
+        return delegate.dataVersion();
+    }
+
+    @Override
+    public String upgradeBlockState(int fromVersion, int toVersion, String blockState) {
+        var key = new Key(fromVersion, toVersion, blockState);
+        var result = blockStates.get(key);
+        if (result != null) return result;
+
+        result = delegate.upgradeBlockState(fromVersion, toVersion, blockState);
+        put(key, result);
+        return result;
+    }
+
+    @Override
+    public List<String> upgradeBlockStates(int fromVersion, int toVersion, List<String> blockStates) {
+        var result = new ArrayList<String>(blockStates.size());
+        var missingIndices = new IntArrayList();
+        var missing = new ArrayList<String>();
+        for (var blockState : blockStates) {
+            var upgraded = this.blockStates.get(new Key(fromVersion, toVersion, blockState));
+            if (upgraded == null) {
+                missingIndices.add(result.size());
+                missing.add(blockState);
+            }
+            result.add(upgraded);
+        }
+        if (missing.isEmpty()) return result;
+
+        // Only the states which have not been seen before are passed to the delegate, still as one batch
+        var upgraded = delegate.upgradeBlockStates(fromVersion, toVersion, missing);
+        for (int i = 0; i < missing.size(); i++) {
+            put(new Key(fromVersion, toVersion, missing.get(i)), upgraded.get(i));
+            result.set(missingIndices.getInt(i), upgraded.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public CompoundBinaryTag upgradeBlockEntity(int fromVersion, int toVersion, String id, CompoundBinaryTag data) {
+        return delegate.upgradeBlockEntity(fromVersion, toVersion, id, data);
+    }
+
+    @Override
+    public List<BlockEntityData> upgradeBlockEntities(int fromVersion, int toVersion, List<BlockEntityData> blockEntities) {
+        return delegate.upgradeBlockEntities(fromVersion, toVersion, blockEntities);
+    }
+
+    @Override
+    public CompoundBinaryTag upgradeEntity(int fromVersion, int toVersion, CompoundBinaryTag data) {
+        return delegate.upgradeEntity(fromVersion, toVersion, data);
+    }
+
+    @Override
+    public List<CompoundBinaryTag> upgradeEntities(int fromVersion, int toVersion, List<CompoundBinaryTag> entities) {
+        return delegate.upgradeEntities(fromVersion, toVersion, entities);
+    }
+
+    private void put(Key key, String blockState) {
+        if (blockStates.size() >= MAX_SIZE) blockStates.clear();
+        blockStates.put(key, blockState);
+    }
+}
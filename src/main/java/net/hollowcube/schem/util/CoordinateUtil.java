@@ -4,7 +4,7 @@ import net.minestom.server.coordinate.Point;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
 
-import java.util.Map;
+import java.util.Objects;
 
 public final class CoordinateUtil {
     private CoordinateUtil() {
@@ -51,6 +51,41 @@ public final class CoordinateUtil {
         };
     }
 
+    /**
+     * Returns the x coordinate of the given block position after rotating it by {@link #rotatePos(Point, Rotation)}.
+     */
+    public static int rotateX(int x, int z, Rotation rotation) {
+        return switch (rotation) {
+            case NONE -> x;
+            case CLOCKWISE_90 -> -z;
+            case CLOCKWISE_180 -> -x;
+            case CLOCKWISE_270 -> z;
+        };
+    }
+
+    /**
+     * Returns the z coordinate of the given block position after rotating it by {@link #rotatePos(Point, Rotation)}.
+     */
+    public static int rotateZ(int x, int z, Rotation rotation) {
+        return switch (rotation) {
+            case NONE -> z;
+            case CLOCKWISE_90 -> x;
+            case CLOCKWISE_180 -> -z;
+            case CLOCKWISE_270 -> -x;
+        };
+    }
+
+    /**
+     * Returns the state ids of each palette entry after rotating it, for use with {@link IntBlockConsumer}.
+     */
+    public static int[] rotatePalette(Block[] palette, Rotation rotation) {
+        var result = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            result[i] = rotateStateId(palette[i].stateId(), rotation);
+        }
+        return result;
+    }
+
     private static Point noNegativeZero(Point point) {
         return new Vec(
                 point.x() == 0 ? 0 : point.x(),
@@ -59,72 +94,39 @@ public final class CoordinateUtil {
         );
     }
 
+    /**
+     * Rotates the block state around the Y axis, keeping any block handler and nbt.
+     */
     public static Block rotateBlock(Block block, Rotation rotation) {
         if (rotation == Rotation.NONE) return block;
-
-        Block newBlock = block;
-
-        if (block.getProperty("facing") != null) {
-            newBlock = rotateFacing(block, rotation);
-        }
-        if (block.getProperty("north") != null) {
-            newBlock = rotateFence(block, rotation);
-        }
-
-        return newBlock;
+        return withStateId(block, rotateStateId(block.stateId(), rotation));
     }
 
     /**
-     * Rotates blocks that have a "facing" property
+     * Mirrors the block state across the given axis (eg {@link Axis#X} swaps east and west), keeping any block
+     * handler and nbt.
      */
-    private static Block rotateFacing(Block block, Rotation rotation) {
-        return switch (rotation) {
-            case NONE -> block;
-            case CLOCKWISE_90 -> block.withProperty("facing",
-                    rotate90(block.getProperty("facing")));
-            case CLOCKWISE_180 -> block.withProperty("facing",
-                    rotate90(rotate90(block.getProperty("facing"))));
-            case CLOCKWISE_270 -> block.withProperty("facing",
-                    rotate90(rotate90(rotate90(block.getProperty("facing")))));
-        };
+    public static Block mirrorBlock(Block block, Axis axis) {
+        return withStateId(block, mirrorStateId(block.stateId(), axis));
     }
 
-    /**
-     * Rotates fences, walls and glass panes
-     * (blocks that have "north" "east" "south" "west" properties)
-     */
-    private static Block rotateFence(Block block, Rotation rotation) {
-        return switch (rotation) {
-            case NONE -> block;
-            case CLOCKWISE_90 -> block.withProperties(Map.of(
-                    "north", block.getProperty("west"),
-                    "east", block.getProperty("north"),
-                    "south", block.getProperty("east"),
-                    "west", block.getProperty("south")
-            ));
-            case CLOCKWISE_180 -> block.withProperties(Map.of(
-                    "north", block.getProperty("south"),
-                    "east", block.getProperty("west"),
-                    "south", block.getProperty("north"),
-                    "west", block.getProperty("east")
-            ));
-            case CLOCKWISE_270 -> block.withProperties(Map.of(
-                    "north", block.getProperty("east"),
-                    "east", block.getProperty("south"),
-                    "south", block.getProperty("west"),
-                    "west", block.getProperty("north")
-            ));
-        };
+    public static int rotateStateId(int stateId, Rotation rotation) {
+        if (rotation == Rotation.NONE) return stateId;
+        return BlockStateTransforms.get().rotate(stateId, rotation);
     }
 
-    private static String rotate90(String in) {
-        return switch (in) {
-            case "north" -> "east";
-            case "east" -> "south";
-            case "south" -> "west";
-            case "west" -> "north";
-            default -> in;
-        };
+    public static int mirrorStateId(int stateId, Axis axis) {
+        return BlockStateTransforms.get().mirror(stateId, axis);
+    }
+
+    private static Block withStateId(Block block, int stateId) {
+        if (stateId == block.stateId()) return block;
+        var result = Objects.requireNonNull(Block.fromStateId(stateId));
+        var handler = block.handler();
+        if (handler != null) result = result.withHandler(handler);
+        var nbt = block.nbt();
+        if (nbt != null) result = result.withNbt(nbt);
+        return result;
     }
 
 }
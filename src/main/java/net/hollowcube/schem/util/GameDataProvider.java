@@ -1,7 +1,10 @@
 package net.hollowcube.schem.util;
 
+import net.hollowcube.schem.BlockEntityData;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -18,8 +21,21 @@ public interface GameDataProvider {
         return NoopGameDataProvider.INSTANCE;
     }
 
+    /**
+     * Replaces the global provider used by all readers and writers. The provider is wrapped with
+     * {@link #caching(GameDataProvider)}, so block state upgrades must be deterministic.
+     */
     static void replaceGlobals(GameDataProvider provider) {
-        NoopGameDataProvider.INSTANCE = Objects.requireNonNull(provider, "game data provider");
+        NoopGameDataProvider.INSTANCE = caching(Objects.requireNonNull(provider, "game data provider"));
+    }
+
+    /**
+     * Returns a provider which memoizes block state upgrades by (fromVersion, toVersion, blockState), delegating
+     * anything else to the given provider.
+     */
+    static GameDataProvider caching(GameDataProvider provider) {
+        if (provider instanceof CachingGameDataProvider) return provider;
+        return new CachingGameDataProvider(provider);
     }
 
     //todo make note that 0 can be passed to upgrade in case the data version is unknown
@@ -40,4 +56,30 @@ public interface GameDataProvider {
     default CompoundBinaryTag upgradeEntity(int fromVersion, int toVersion, CompoundBinaryTag data) {
         return data;
     }
+
+    // Batch variants below. Readers always upgrade an entire palette or entity list at once, so providers with
+    // expensive per-call setup may override these to amortize it. Results must be in the same order as the input.
+
+    default List<String> upgradeBlockStates(int fromVersion, int toVersion, List<String> blockStates) {
+        var result = new ArrayList<String>(blockStates.size());
+        for (var blockState : blockStates)
+            result.add(upgradeBlockState(fromVersion, toVersion, blockState));
+        return result;
+    }
+
+    default List<BlockEntityData> upgradeBlockEntities(int fromVersion, int toVersion, List<BlockEntityData> blockEntities) {
+        var result = new ArrayList<BlockEntityData>(blockEntities.size());
+        for (var blockEntity : blockEntities) {
+            var data = upgradeBlockEntity(fromVersion, toVersion, blockEntity.id(), blockEntity.data());
+            result.add(new BlockEntityData(blockEntity.id(), blockEntity.position(), data));
+        }
+        return result;
+    }
+
+    default List<CompoundBinaryTag> upgradeEntities(int fromVersion, int toVersion, List<CompoundBinaryTag> entities) {
+        var result = new ArrayList<CompoundBinaryTag>(entities.size());
+        for (var entity : entities)
+            result.add(upgradeEntity(fromVersion, toVersion, entity));
+        return result;
+    }
 }
@@ -0,0 +1,14 @@
+package net.hollowcube.schem.util;
+
+/**
+ * Primitive variant of {@link BlockConsumer} which receives the block position and state id directly, so no
+ * objects need to be allocated per block.
+ *
+ * <p>Block entity data is not included in the state id, see {@link net.hollowcube.schem.Schematic#blockEntities()}.</p>
+ */
+@FunctionalInterface
+public interface IntBlockConsumer {
+
+    void accept(int x, int y, int z, int stateId);
+
+}
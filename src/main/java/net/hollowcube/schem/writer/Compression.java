@@ -0,0 +1,215 @@
+package net.hollowcube.schem.writer;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>The gzip compression applied by a {@link SchematicWriter}.</p>
+ *
+ * <p>When an executor is given, the serialized NBT is split into blocks of {@code blockSize} bytes which are deflated
+ * concurrently, each as its own gzip member. A gzip stream of several members decompresses to their concatenation,
+ * so the output is still read by vanilla, WorldEdit and any other {@link java.util.zip.GZIPInputStream} based reader.
+ * Each block starts without a dictionary, so the output is slightly larger than a single member.</p>
+ *
+ * @param level     The deflate level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or
+ *                  {@link Deflater#DEFAULT_COMPRESSION}
+ * @param blockSize The number of uncompressed bytes in each gzip member when compressing in parallel
+ * @param executor  The executor to compress blocks on, or null to compress a single member on the calling thread
+ */
+public record Compression(int level, int blockSize, @Nullable Executor executor) {
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private static final Compression GZIP = new Compression(Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, null);
+
+    private static final byte[] MEMBER_HEADER = {
+            0x1f, (byte) 0x8b, // Magic
+            Deflater.DEFLATED, // Method
+            0, // Flags
+            0, 0, 0, 0, // Modification time
+            0, // Extra flags
+            (byte) 0xff // OS (unknown)
+    };
+
+    /**
+     * A single gzip member at the default level, the same as {@link java.util.zip.GZIPOutputStream}.
+     */
+    public static Compression gzip() {
+        return GZIP;
+    }
+
+    public static Compression gzip(int level) {
+        return new Compression(level, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    /**
+     * Parallel compression at the fastest level on the common pool, intended for frequent writes such as autosaves.
+     */
+    public static Compression fast() {
+        return parallel(Deflater.BEST_SPEED);
+    }
+
+    public static Compression parallel(int level) {
+        return parallel(level, ForkJoinPool.commonPool());
+    }
+
+    public static Compression parallel(int level, Executor executor) {
+        return new Compression(level, DEFAULT_BLOCK_SIZE, executor);
+    }
+
+    public Compression {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        if (blockSize < 1) throw new IllegalArgumentException("block size must be positive: " + blockSize);
+    }
+
+    public Compression withBlockSize(int blockSize) {
+        return new Compression(level, blockSize, executor);
+    }
+
+    /**
+     * Opens a compressing stream over {@code out}. Closing the returned stream finishes the gzip stream but leaves
+     * {@code out} open.
+     */
+    OutputStream open(OutputStream out) throws IOException {
+        var executor = this.executor;
+        if (executor == null) return new LevelGzipOutputStream(out, level);
+        return new ParallelGzipOutputStream(out, level, blockSize, executor);
+    }
+
+    private static byte[] member(byte[] data, int offset, int length, int level) {
+        var deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+
+            var out = new ByteArrayOutputStream(length / 2 + 64);
+            out.writeBytes(MEMBER_HEADER);
+            var buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            var crc = new CRC32();
+            crc.update(data, offset, length);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, length);
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        private boolean closed = false;
+
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 16 * 1024);
+            def.setLevel(level);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                finish();
+                out.flush();
+            } finally {
+                def.end();
+            }
+        }
+    }
+
+    /**
+     * Buffers blocks of {@code blockSize} bytes and compresses each as a gzip member on the executor. Members are
+     * written in order, and at most a few blocks per processor are buffered at once.
+     */
+    private static final class ParallelGzipOutputStream extends OutputStream {
+        private static final int MAX_PENDING = Runtime.getRuntime().availableProcessors() * 2;
+
+        private final OutputStream out;
+        private final int level;
+        private final int blockSize;
+        private final Executor executor;
+
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private byte[] buffer;
+        private int count = 0;
+        private boolean written = false;
+        private boolean closed = false;
+
+        ParallelGzipOutputStream(OutputStream out, int level, int blockSize, Executor executor) {
+            this.out = out;
+            this.level = level;
+            this.blockSize = blockSize;
+            this.executor = executor;
+            this.buffer = new byte[blockSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == blockSize) submit();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            while (len > 0) {
+                if (count == blockSize) submit();
+                int length = Math.min(len, blockSize - count);
+                System.arraycopy(b, off, buffer, count, length);
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            // An empty stream is still a single (empty) member
+            if (count > 0 || !written) submit();
+            while (!pending.isEmpty()) writeMember();
+            out.flush();
+        }
+
+        private void submit() throws IOException {
+            byte[] block = buffer;
+            int length = count;
+            pending.add(CompletableFuture.supplyAsync(() -> member(block, 0, length, level), executor));
+            buffer = new byte[blockSize];
+            count = 0;
+            written = true;
+            while (pending.size() > MAX_PENDING) writeMember();
+        }
+
+        private void writeMember() throws IOException {
+            try {
+                out.write(pending.removeFirst().join());
+            } catch (CompletionException e) {
+                throw new IOException("failed to compress block", e.getCause());
+            }
+        }
+    }
+}
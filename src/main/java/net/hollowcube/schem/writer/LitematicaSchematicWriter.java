@@ -1,9 +1,220 @@
 package net.hollowcube.schem.writer;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.hollowcube.schem.LitematicaSchematic;
+import net.hollowcube.schem.Schematic;
 import net.hollowcube.schem.util.GameDataProvider;
+import net.kyori.adventure.nbt.BinaryTagTypes;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.block.Block;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static net.hollowcube.schem.writer.WriteHelpers.assertTrue;
+import static net.hollowcube.schem.writer.WriteHelpers.packTight;
+import static net.hollowcube.schem.writer.WriteHelpers.writeBlockState;
+
+/**
+ * <p>Writes schematics in the Litematica 6.1 format. A {@link LitematicaSchematic} keeps its regions, any other
+ * schematic is written as a single region at its offset.</p>
+ *
+ * <p>Each region is serialized to its own buffer on the executor, so multi-region schematics are encoded in
+ * parallel. The buffers are then written into the root in order and compressed together.</p>
+ *
+ * @see <a href="https://github.com/maruohon/litematica">Litematica</a>
+ */
+final class LitematicaSchematicWriter implements SchematicWriter {
+    public static final int FORMAT_VERSION = 6;
+    public static final int FORMAT_SUB_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-final class LitematicaSchematicWriter {
     private final GameDataProvider gameData = GameDataProvider.provider();
+    private final Executor executor;
+
+    private record EncodedRegion(String name, byte[] payload, long volume, long totalBlocks) {
+    }
+
+    LitematicaSchematicWriter(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void write(Schematic schematic, OutputStream out, Compression compression) throws IOException {
+        assertTrue(schematic.hasBlockData(), "schematic must have block data");
+        var regions = encodeRegions(schematic);
+
+        long totalVolume = 0, totalBlocks = 0;
+        for (var region : regions) {
+            totalVolume += region.volume();
+            totalBlocks += region.totalBlocks();
+        }
+
+        try (var compressed = compression.open(out)) {
+            var nbt = new NbtStreamWriter(new BufferedOutputStream(compressed, BUFFER_SIZE));
+            nbt.beginCompound("");
+            nbt.putInt("MinecraftDataVersion", gameData.dataVersion());
+            nbt.putInt("Version", FORMAT_VERSION);
+            nbt.putInt("SubVersion", FORMAT_SUB_VERSION);
+            nbt.put("Metadata", createMetadata(schematic, regions.size(), totalVolume, totalBlocks));
+
+            nbt.beginCompound("Regions");
+            for (var region : regions) {
+                // The payload already includes the end of the region compound
+                nbt.beginCompound(region.name());
+                nbt.output().write(region.payload());
+            }
+            nbt.endCompound();
+
+            nbt.endCompound();
+            nbt.flush();
+        }
+    }
+
+    private List<EncodedRegion> encodeRegions(Schematic schematic) throws IOException {
+        if (!(schematic instanceof LitematicaSchematic litematica)) {
+            var name = Objects.requireNonNullElse(schematic.name(), "Unnamed");
+            return List.of(encodeRegion(name, schematic, schematic.offset()));
+        }
+
+        var regions = litematica.regions();
+        if (regions.size() == 1) {
+            var entry = regions.entrySet().iterator().next();
+            return List.of(encodeRegion(entry.getKey(), entry.getValue(), entry.getValue().offset()));
+        }
+
+        var futures = new ArrayList<CompletableFuture<EncodedRegion>>(regions.size());
+        for (Map.Entry<String, Schematic> entry : regions.entrySet()) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return encodeRegion(entry.getKey(), entry.getValue(), entry.getValue().offset());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+
+        var encoded = new ArrayList<EncodedRegion>(futures.size());
+        try {
+            for (var future : futures) encoded.add(future.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw e;
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes the payload of a region compound (its fields and end tag, without the name).
+     */
+    private EncodedRegion encodeRegion(String name, Schematic region, Point position) throws IOException {
+        var size = region.size();
+        int sizeX = size.blockX(), sizeY = size.blockY(), sizeZ = size.blockZ();
+        int volume = sizeX * sizeY * sizeZ;
+
+        // Litematica always has air as palette entry zero, so remap the region palette to put it first
+        var regionPalette = region.blockPalette();
+        var palette = new ArrayList<Block>(regionPalette.size() + 1);
+        Object2IntMap<Block> paletteIndices = new Object2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
+        palette.add(Block.AIR);
+        paletteIndices.put(Block.AIR, 0);
+        var remap = new int[regionPalette.size()];
+        for (int i = 0; i < remap.length; i++) {
+            var block = regionPalette.get(i);
+            int index = paletteIndices.getInt(block);
+            if (index == -1) {
+                index = palette.size();
+                palette.add(block);
+                paletteIndices.put(block, index);
+            }
+            remap[i] = index;
+        }
+
+        // Positions without block data are left as air
+        var values = new int[volume];
+        long totalBlocks = 0;
+        var storage = region.blockStorage();
+        if (storage.volume() > 0) {
+            assertTrue(storage.sizeX() == sizeX && storage.sizeY() == sizeY && storage.sizeZ() == sizeZ,
+                    "block data does not match region size {0}", size);
+            storage.get(0, 0, 0, sizeX, sizeY, sizeZ, values);
+            for (int i = 0; i < volume; i++) {
+                int value = values[i] = remap[values[i]];
+                if (value != 0) totalBlocks++;
+            }
+        }
+        int bitsPerEntry = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(palette.size() - 1));
+
+        var out = new ByteArrayOutputStream();
+        var nbt = new NbtStreamWriter(out);
+        nbt.put("Position", vec3(position));
+        nbt.put("Size", vec3(size));
+
+        nbt.beginList("BlockStatePalette", BinaryTagTypes.COMPOUND, palette.size());
+        for (var block : palette) nbt.payload(writeBlockState(block));
+        nbt.putLongArray("BlockStates", packTight(values, bitsPerEntry));
+
+        var blockEntities = region.blockEntities();
+        nbt.beginList("TileEntities", BinaryTagTypes.COMPOUND, blockEntities.size());
+        for (var blockEntity : blockEntities) {
+            // Litematica has no block entity id, it is taken from the block state when reading
+            var pos = blockEntity.position();
+            nbt.payload(blockEntity.data()
+                    .putInt("x", pos.blockX())
+                    .putInt("y", pos.blockY())
+                    .putInt("z", pos.blockZ()));
+        }
+
+        var entities = region.entities();
+        nbt.beginList("Entities", BinaryTagTypes.COMPOUND, entities.size());
+        for (var entity : entities) nbt.payload(entity);
+
+        nbt.beginList("PendingBlockTicks", BinaryTagTypes.COMPOUND, 0);
+        nbt.beginList("PendingFluidTicks", BinaryTagTypes.COMPOUND, 0);
+        nbt.endCompound();
+        nbt.flush();
+
+        return new EncodedRegion(name, out.toByteArray(), volume, totalBlocks);
+    }
+
+    private CompoundBinaryTag createMetadata(Schematic schematic, int regionCount, long totalVolume, long totalBlocks) {
+        long now = System.currentTimeMillis();
+        var existing = schematic instanceof LitematicaSchematic ? schematic.metadata() : CompoundBinaryTag.empty();
+        var createdAt = schematic.createdAt();
+        var size = schematic.size();
+        return CompoundBinaryTag.builder()
+                .put(existing)
+                .putString("Name", Objects.requireNonNullElse(schematic.name(), "Unnamed"))
+                .putString("Author", Objects.requireNonNullElse(schematic.author(), NAME))
+                .putString("Description", existing.getString("Description"))
+                .putInt("RegionCount", regionCount)
+                .putInt("TotalVolume", (int) Math.min(Integer.MAX_VALUE, totalVolume))
+                .putInt("TotalBlocks", (int) Math.min(Integer.MAX_VALUE, totalBlocks))
+                .putLong("TimeCreated", createdAt != null ? createdAt.toEpochMilli() : now)
+                .putLong("TimeModified", now)
+                .put("EnclosingSize", vec3(size))
+                .build();
+    }
 
-    // Stub: TODO
+    private static CompoundBinaryTag vec3(Point point) {
+        return CompoundBinaryTag.builder()
+                .putInt("x", point.blockX())
+                .putInt("y", point.blockY())
+                .putInt("z", point.blockZ())
+                .build();
+    }
 }
@@ -0,0 +1,108 @@
+package net.hollowcube.schem.writer;
+
+import net.kyori.adventure.nbt.BinaryTag;
+import net.kyori.adventure.nbt.BinaryTagType;
+import net.kyori.adventure.nbt.BinaryTagTypes;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an NBT tree as a sequence of tokens, so that large payloads can be emitted directly to the stream rather than
+ * first being built into tags. The caller is responsible for producing a well-formed tree (eg ending every compound).
+ */
+final class NbtStreamWriter {
+    private final DataOutputStream out;
+
+    NbtStreamWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * The raw output, for writing array payloads after {@link #beginByteArray(String, int)}.
+     */
+    DataOutputStream output() {
+        return out;
+    }
+
+    void beginCompound(String name) throws IOException {
+        header(BinaryTagTypes.COMPOUND, name);
+    }
+
+    void endCompound() throws IOException {
+        out.writeByte(BinaryTagTypes.END.id());
+    }
+
+    /**
+     * Begins a list of {@code size} elements. Each element must be written with {@link #payload(BinaryTag)}, or for
+     * compound elements as fields followed by {@link #endCompound()}.
+     */
+    void beginList(String name, BinaryTagType<? extends BinaryTag> elementType, int size) throws IOException {
+        header(BinaryTagTypes.LIST, name);
+        out.writeByte(size == 0 ? BinaryTagTypes.END.id() : elementType.id());
+        out.writeInt(size);
+    }
+
+    /**
+     * Begins a byte array of {@code length} bytes, which must be written to {@link #output()} next.
+     */
+    void beginByteArray(String name, int length) throws IOException {
+        header(BinaryTagTypes.BYTE_ARRAY, name);
+        out.writeInt(length);
+    }
+
+    void putShort(String name, short value) throws IOException {
+        header(BinaryTagTypes.SHORT, name);
+        out.writeShort(value);
+    }
+
+    void putInt(String name, int value) throws IOException {
+        header(BinaryTagTypes.INT, name);
+        out.writeInt(value);
+    }
+
+    void putString(String name, String value) throws IOException {
+        header(BinaryTagTypes.STRING, name);
+        out.writeUTF(value);
+    }
+
+    void putIntArray(String name, int... value) throws IOException {
+        header(BinaryTagTypes.INT_ARRAY, name);
+        out.writeInt(value.length);
+        for (int i : value) out.writeInt(i);
+    }
+
+    /**
+     * Writes a list of ints, which vanilla uses for positions rather than an int array.
+     */
+    void putIntList(String name, int... value) throws IOException {
+        beginList(name, BinaryTagTypes.INT, value.length);
+        for (int i : value) out.writeInt(i);
+    }
+
+    void putLongArray(String name, long[] value) throws IOException {
+        header(BinaryTagTypes.LONG_ARRAY, name);
+        out.writeInt(value.length);
+        for (long l : value) out.writeLong(l);
+    }
+
+    void put(String name, BinaryTag tag) throws IOException {
+        header(tag.type(), name);
+        payload(tag);
+    }
+
+    @SuppressWarnings("unchecked")
+    void payload(BinaryTag tag) throws IOException {
+        ((BinaryTagType<BinaryTag>) tag.type()).write(tag, out);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private void header(BinaryTagType<? extends BinaryTag> type, String name) throws IOException {
+        out.writeByte(type.id());
+        out.writeUTF(name);
+    }
+}
@@ -2,6 +2,14 @@ package net.hollowcube.schem.writer;
 
 import net.hollowcube.schem.Schematic;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
 public interface SchematicWriter {
     String NAME = "github.com/hollow-cube/schem";
 
@@ -9,9 +17,69 @@ public interface SchematicWriter {
         return new SpongeSchematicWriter();
     }
 
+    /**
+     * A Litematica writer, which encodes multiple regions in parallel on the common pool.
+     */
+    static SchematicWriter litematica() {
+        return new LitematicaSchematicWriter(ForkJoinPool.commonPool());
+    }
+
+    static SchematicWriter litematica(Executor executor) {
+        return new LitematicaSchematicWriter(executor);
+    }
+
+    /**
+     * A vanilla structure writer. Other schematics are converted, leaving out air and structure voids.
+     */
     static SchematicWriter structure() {
-        return new StructureWriter();
+        return new StructureWriter(false);
+    }
+
+    /**
+     * A vanilla structure writer. Other schematics are converted, leaving out structure voids and optionally air.
+     */
+    static SchematicWriter structure(boolean includeAir) {
+        return new StructureWriter(includeAir);
+    }
+
+    /**
+     * Writes the schematic as a single gzip member at the default compression level.
+     */
+    default byte[] write(Schematic schematic) {
+        return write(schematic, Compression.gzip());
+    }
+
+    /**
+     * Writes the schematic with the given compression, see {@link Compression#parallel(int)} to compress large
+     * schematics on several threads.
+     */
+    default byte[] write(Schematic schematic, Compression compression) {
+        try {
+            var out = new ByteArrayOutputStream();
+            write(schematic, out, compression);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new SchematicWriteException("failed to write schematic", e);
+        }
+    }
+
+    default void write(Schematic schematic, OutputStream out) throws IOException {
+        write(schematic, out, Compression.gzip());
+    }
+
+    default void write(Schematic schematic, WritableByteChannel channel) throws IOException {
+        write(schematic, channel, Compression.gzip());
+    }
+
+    default void write(Schematic schematic, WritableByteChannel channel, Compression compression) throws IOException {
+        write(schematic, Channels.newOutputStream(channel), compression);
     }
 
-    byte[] write(Schematic schematic);
+    /**
+     * <p>Writes the schematic to the given stream. NBT is emitted as it is produced rather than built into a tree
+     * first, and block data is encoded straight from {@link Schematic#blockStorage()} to the compressor.</p>
+     *
+     * <p>The compressed stream is finished, but {@code out} is left open.</p>
+     */
+    void write(Schematic schematic, OutputStream out, Compression compression) throws IOException;
 }
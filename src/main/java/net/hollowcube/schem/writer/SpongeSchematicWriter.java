@@ -2,14 +2,14 @@ package net.hollowcube.schem.writer;
 
 import net.hollowcube.schem.Schematic;
 import net.hollowcube.schem.util.GameDataProvider;
-import net.kyori.adventure.nbt.BinaryTagIO;
 import net.kyori.adventure.nbt.BinaryTagTypes;
 import net.kyori.adventure.nbt.CompoundBinaryTag;
-import net.kyori.adventure.nbt.ListBinaryTag;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.util.Map;
+import java.io.OutputStream;
+
+import static net.hollowcube.schem.writer.WriteHelpers.assertTrue;
 
 /**
  * Writes schematics in the sponge schematic v3 format. Only v3 is supported for writing.
@@ -18,82 +18,90 @@ import java.util.Map;
  */
 final class SpongeSchematicWriter implements SchematicWriter {
     public static final int FORMAT_VERSION = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final GameDataProvider gameData = GameDataProvider.provider();
 
     @Override
-    public byte[] write(Schematic schematic) {
-        try {
-            var out = new ByteArrayOutputStream();
-            BinaryTagIO.writer().writeNamed(Map.entry("", createRoot(schematic)), out, BinaryTagIO.Compression.GZIP);
-            return out.toByteArray();
-        } catch (IOException e) {
-            throw new SchematicWriteException("failed to write schematic", e);
+    public void write(Schematic schematic, OutputStream out, Compression compression) throws IOException {
+        try (var compressed = compression.open(out)) {
+            var nbt = new NbtStreamWriter(new BufferedOutputStream(compressed, BUFFER_SIZE));
+            nbt.beginCompound("");
+            writeSchematic(nbt, schematic);
+            nbt.endCompound();
+            nbt.flush();
         }
     }
 
-    private CompoundBinaryTag createRoot(Schematic schematic) {
-        var root = CompoundBinaryTag.builder();
-        root.putInt("Version", FORMAT_VERSION);
-        root.putInt("DataVersion", gameData.dataVersion());
-        root.put("Metadata", schematic.metadata().putString("Writer", NAME));
+    private void writeSchematic(NbtStreamWriter nbt, Schematic schematic) throws IOException {
+        nbt.beginCompound("Schematic");
+        nbt.putInt("Version", FORMAT_VERSION);
+        nbt.putInt("DataVersion", gameData.dataVersion());
+        nbt.put("Metadata", schematic.metadata().putString("Writer", NAME));
 
         var size = schematic.size();
-        root.putShort("Width", (short) size.blockX());
-        root.putShort("Height", (short) size.blockY());
-        root.putShort("Length", (short) size.blockZ());
+        nbt.putShort("Width", (short) size.blockX());
+        nbt.putShort("Height", (short) size.blockY());
+        nbt.putShort("Length", (short) size.blockZ());
 
         var offset = schematic.offset();
-        root.putIntArray("Offset", new int[]{offset.blockX(), offset.blockY(), offset.blockZ()});
+        nbt.putIntArray("Offset", offset.blockX(), offset.blockY(), offset.blockZ());
 
         if (schematic.hasBlockData()) {
-            root.put("Blocks", createBlockContainer(schematic));
+            writeBlockContainer(nbt, schematic);
         }
 
         if (schematic.hasBiomeData()) {
-            root.put("Biomes", createBiomeContainer(schematic));
+            writeBiomeContainer(nbt, schematic);
         }
 
-        if (!schematic.entities().isEmpty()) {
-            root.put("Entities", ListBinaryTag.from(schematic.entities()));
+        var entities = schematic.entities();
+        if (!entities.isEmpty()) {
+            nbt.beginList("Entities", BinaryTagTypes.COMPOUND, entities.size());
+            for (var entity : entities) nbt.payload(entity);
         }
 
-        return CompoundBinaryTag.builder().put("Schematic", root.build()).build();
+        nbt.endCompound();
     }
 
-    private CompoundBinaryTag createBlockContainer(Schematic schematic) {
-        var container = CompoundBinaryTag.builder();
+    private void writeBlockContainer(NbtStreamWriter nbt, Schematic schematic) throws IOException {
+        nbt.beginCompound("Blocks");
 
         var palette = schematic.blockPalette();
         var paletteTag = CompoundBinaryTag.builder();
         for (int i = 0; i < palette.size(); i++)
             paletteTag.putInt(palette.get(i).state(), i);
-        container.put("Palette", paletteTag.build());
-        container.put("Data", schematic.blockData());
+        nbt.put("Palette", paletteTag.build());
+
+        // Encode the varints straight from the packed storage, measuring them first since the length comes first
+        var blockStorage = schematic.blockStorage();
+        long length = blockStorage.varIntsLength();
+        assertTrue(length <= Integer.MAX_VALUE, "block data is too large ({0} bytes)", length);
+        nbt.beginByteArray("Data", (int) length);
+        blockStorage.writeVarInts(nbt.output());
 
-        var blockEntityList = ListBinaryTag.builder(BinaryTagTypes.COMPOUND);
-        for (var blockEntity : schematic.blockEntities()) {
+        // Note: we must include block entities or WorldEdit fails to read the schematic. Thank you worldedit!
+        var blockEntities = schematic.blockEntities();
+        nbt.beginList("BlockEntities", BinaryTagTypes.COMPOUND, blockEntities.size());
+        for (var blockEntity : blockEntities) {
             var pos = blockEntity.position();
-            blockEntityList.add(CompoundBinaryTag.builder()
-                    .putString("Id", blockEntity.id())
-                    .putIntArray("Pos", new int[]{pos.blockX(), pos.blockY(), pos.blockZ()})
-                    .put("Data", blockEntity.data())
-                    .build());
+            nbt.putString("Id", blockEntity.id());
+            nbt.putIntArray("Pos", pos.blockX(), pos.blockY(), pos.blockZ());
+            nbt.put("Data", blockEntity.data());
+            nbt.endCompound();
         }
-        // Note: we must include block entities or WorldEdit fails to read the schematic. Thank you worldedit!
-        container.put("BlockEntities", blockEntityList.build());
 
-        return container.build();
+        nbt.endCompound();
     }
 
-    private CompoundBinaryTag createBiomeContainer(Schematic schematic) {
-        var container = CompoundBinaryTag.builder();
+    private void writeBiomeContainer(NbtStreamWriter nbt, Schematic schematic) throws IOException {
+        nbt.beginCompound("Biomes");
         var palette = schematic.biomePalette();
         var paletteTag = CompoundBinaryTag.builder();
         for (int i = 0; i < palette.size(); i++)
             paletteTag.putInt(palette.get(i), i);
-        container.put("Palette", paletteTag.build());
-        container.put("Data", schematic.biomeData());
-        return container.build();
+        nbt.put("Palette", paletteTag.build());
+        nbt.put("Data", schematic.biomeData());
+        nbt.endCompound();
     }
 }
@@ -1,84 +1,147 @@
 package net.hollowcube.schem.writer;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.hollowcube.schem.BlockEntityData;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SpongeSchematic;
 import net.hollowcube.schem.Structure;
 import net.hollowcube.schem.util.GameDataProvider;
-import net.kyori.adventure.nbt.BinaryTagIO;
 import net.kyori.adventure.nbt.BinaryTagTypes;
-import net.kyori.adventure.nbt.CompoundBinaryTag;
 import net.kyori.adventure.nbt.ListBinaryTag;
 import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
+import java.io.OutputStream;
 
 import static net.hollowcube.schem.writer.WriteHelpers.assertTrue;
 import static net.hollowcube.schem.writer.WriteHelpers.writeBlockState;
 
 final class StructureWriter implements SchematicWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final GameDataProvider gameData = GameDataProvider.provider();
+    private final boolean includeAir;
+
+    /**
+     * @param includeAir Whether air is written when converting other schematics. Air is placed by vanilla, so leaving
+     *                   it out means the structure does not clear the blocks it is placed over.
+     */
+    StructureWriter(boolean includeAir) {
+        this.includeAir = includeAir;
+    }
 
     @Override
-    public byte[] write(Schematic schematic) {
-        try {
-            var out = new ByteArrayOutputStream();
-            BinaryTagIO.writer().writeNamed(Map.entry("", createRoot(schematic)), out, BinaryTagIO.Compression.GZIP);
-            return out.toByteArray();
-        } catch (IOException e) {
-            throw new SchematicWriteException("failed to write schematic", e);
-        }
-    }
+    public void write(Schematic schematic, OutputStream out, Compression compression) throws IOException {
+        assertTrue(schematic.hasBlockData(), "schematic must have block data");
+        try (var compressed = compression.open(out)) {
+            var nbt = new NbtStreamWriter(new BufferedOutputStream(compressed, BUFFER_SIZE));
+            nbt.beginCompound("");
+            nbt.putInt("DataVersion", gameData.dataVersion());
+            var size = schematic.size();
+            nbt.putIntList("size", size.blockX(), size.blockY(), size.blockZ());
+
+            if (schematic instanceof Structure structure) {
+                writeStructureBlocks(nbt, structure);
+            } else {
+                writeConvertedBlocks(nbt, schematic);
+            }
 
-    private CompoundBinaryTag createRoot(Schematic anySchematic) {
-        var schematic = fromGenericSchematic(anySchematic);
-        var root = CompoundBinaryTag.builder();
-        root.putInt("DataVersion", gameData.dataVersion());
+            var entities = schematic.entities();
+            nbt.beginList("entities", BinaryTagTypes.COMPOUND, entities.size());
+            for (var entity : entities) nbt.payload(entity);
 
-        var size = schematic.size();
-        root.putIntArray("size", new int[]{size.blockX(), size.blockY(), size.blockZ()});
+            nbt.endCompound();
+            nbt.flush();
+        }
+    }
 
+    private void writeStructureBlocks(NbtStreamWriter nbt, Structure schematic) throws IOException {
         // Palettes
         var palettes = schematic.palettes();
         if (palettes.size() == 1) {
-            root.put("palette", writeBlockPalette(palettes.get(0)));
+            nbt.put("palette", writeBlockPalette(palettes.get(0)));
         } else {
             var paletteList = ListBinaryTag.builder(BinaryTagTypes.LIST);
             for (var palette : palettes) {
                 paletteList.add(writeBlockPalette(palette));
             }
-            root.put("palettes", paletteList.build());
+            nbt.put("palettes", paletteList.build());
         }
 
         // Blocks
-        var blocks = ListBinaryTag.builder(BinaryTagTypes.COMPOUND);
-        for (var block : schematic.blocks()) {
-            var blockTag = CompoundBinaryTag.builder();
-            blockTag.putInt("state", block.paletteIndex());
-            blockTag.putIntArray("pos", new int[]{block.pos().blockX(), block.pos().blockY(), block.pos().blockZ()});
-            if (block.blockEntity() != null)
-                blockTag.put("nbt", block.blockEntity().data().putString("id", block.blockEntity().id()));
-            blocks.add(blockTag.build());
+        nbt.beginList("blocks", BinaryTagTypes.COMPOUND, schematic.blockCount());
+        for (int slot = 0; slot < schematic.blockCount(); slot++) {
+            var pos = schematic.position(slot);
+            writeBlock(nbt, schematic.paletteIndex(slot), pos.blockX(), pos.blockY(), pos.blockZ(), schematic.blockEntity(slot));
         }
-        root.put("blocks", blocks.build());
-
-        // Entities
-        root.put("entities", ListBinaryTag.from(schematic.entities()));
-
-        return root.build();
     }
 
-    private Structure fromGenericSchematic(Schematic schematic) {
-        if (schematic instanceof Structure structure) return structure;
-        // Otherwise do the conversion
+    /**
+     * Writes the blocks of any other schematic in a single pass over its packed block storage. Structure voids (and
+     * air, unless included) are skipped by palette entry, and the block list is emitted directly.
+     */
+    private void writeConvertedBlocks(NbtStreamWriter nbt, Schematic schematic) throws IOException {
+        var palette = schematic.blockPalette();
+        nbt.put("palette", writeBlockPalette(palette.toArray(Block[]::new)));
+
+        var skipped = new boolean[palette.size()];
+        for (int i = 0; i < skipped.length; i++) {
+            var block = palette.get(i);
+            skipped[i] = block.id() == Block.STRUCTURE_VOID.id() || (!includeAir && block.isAir());
+        }
 
-        assertTrue(schematic.hasBlockData(), "schematic must have block data");
-        var palettes = List.<Block[]>of(schematic.blockPalette().toArray(new Block[0]));
+        // Block entities by XZY index, the same as the block storage
+        var storage = schematic.blockStorage();
+        int sizeX = storage.sizeX(), sizeY = storage.sizeY(), sizeZ = storage.sizeZ();
+        Int2ObjectMap<BlockEntityData> blockEntities;
+        if (schematic instanceof SpongeSchematic sponge) {
+            blockEntities = sponge.blockEntitiesByPos();
+        } else {
+            blockEntities = new Int2ObjectOpenHashMap<>();
+            for (var blockEntity : schematic.blockEntities()) {
+                var pos = blockEntity.position();
+                blockEntities.put(pos.blockX() + pos.blockZ() * sizeX + pos.blockY() * sizeX * sizeZ, blockEntity);
+            }
+        }
+
+        // The list length is written first, so count the kept blocks before writing them
+        var row = new int[sizeX];
+        int count = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                storage.get(0, y, z, sizeX, 1, 1, row);
+                for (int paletteIndex : row) {
+                    if (!skipped[paletteIndex]) count++;
+                }
+            }
+        }
 
-        //todo block data conversion
+        nbt.beginList("blocks", BinaryTagTypes.COMPOUND, count);
+        int index = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                storage.get(0, y, z, sizeX, 1, 1, row);
+                for (int x = 0; x < sizeX; x++, index++) {
+                    int paletteIndex = row[x];
+                    if (skipped[paletteIndex]) continue;
+                    writeBlock(nbt, paletteIndex, x, y, z, blockEntities.get(index));
+                }
+            }
+        }
+    }
 
-        return new Structure(schematic.size(), List.of(), palettes, schematic.entities());
+    private static void writeBlock(
+            NbtStreamWriter nbt, int paletteIndex,
+            int x, int y, int z, @Nullable BlockEntityData blockEntity
+    ) throws IOException {
+        nbt.putInt("state", paletteIndex);
+        nbt.putIntList("pos", x, y, z);
+        if (blockEntity != null)
+            nbt.put("nbt", blockEntity.data().putString("id", blockEntity.id()));
+        nbt.endCompound();
     }
 
     private ListBinaryTag writeBlockPalette(Block[] palette) {
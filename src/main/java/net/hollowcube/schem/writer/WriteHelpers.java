@@ -44,8 +44,33 @@ final class WriteHelpers {
         return longs;
     }
 
+    /**
+     * Packs values with no padding, so entries may span two longs. This is the inverse of
+     * {@code ReadHelpers#unpackPaletteTight}, and works a word at a time: each value is shifted into the current
+     * long, and any bits which did not fit start the next one.
+     */
     // https://github.com/maruohon/litematica/blob/pre-rewrite/fabric/1.20.x/src/main/java/fi/dy/masa/litematica/schematic/container/LitematicaBitArray.java#L44
-    //todo packTight
+    public static long[] packTight(int[] ints, int bitsPerEntry) {
+        long[] longs = new long[(int) ((ints.length * (long) bitsPerEntry + 63) / 64)];
+
+        long mask = (1L << bitsPerEntry) - 1L;
+        long word = 0;
+        int bitIndex = 0, longIndex = 0;
+        for (int value : ints) {
+            long entry = value & mask;
+            word |= entry << bitIndex;
+            bitIndex += bitsPerEntry;
+            if (bitIndex >= 64) {
+                longs[longIndex++] = word;
+                bitIndex -= 64;
+                // The high bits of the entry which did not fit in the previous long
+                word = bitIndex == 0 ? 0 : entry >>> (bitsPerEntry - bitIndex);
+            }
+        }
+        if (bitIndex > 0) longs[longIndex] = word;
+
+        return longs;
+    }
 
     private WriteHelpers() {
     }
@@ -1,5 +1,6 @@
 package net.hollowcube.schem.demo;
 
+import net.hollowcube.schem.paste.SchematicPaster;
 import net.hollowcube.schem.reader.SchematicReader;
 import net.hollowcube.schem.util.Rotation;
 import net.minestom.server.MinecraftServer;
@@ -47,9 +48,8 @@ public class DemoServer {
 
                 try (var is = getClass().getResourceAsStream("/" + String.join(" ", context.<String[]>get("path")) + ".schem")) {
                     var schem = SchematicReader.sponge().read(is.readAllBytes());
-                    schem.createBatch(Rotation.NONE).apply(instance, player.getPosition(), () -> {
-                        player.sendMessage("Done!");
-                    });
+                    SchematicPaster.sections().paste(instance, schem, player.getPosition(), Rotation.NONE)
+                            .thenRun(() -> player.sendMessage("Done!"));
                 } catch (Exception e) {
                     player.sendMessage("Failed to paste schematic: " + e.getMessage());
                     e.printStackTrace();
@@ -2,20 +2,48 @@ package net.hollowcube.schem.demo;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import net.hollowcube.schem.AxiomBlueprint;
+import net.hollowcube.schem.BlockStorage;
+import net.hollowcube.schem.LitematicaSchematic;
 import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.SchematicHeader;
+import net.hollowcube.schem.SpongeSchematic;
+import net.hollowcube.schem.Structure;
+import net.hollowcube.schem.builder.SchematicBuilder;
 import net.hollowcube.schem.reader.SchematicReader;
+import net.hollowcube.schem.util.Axis;
+import net.hollowcube.schem.util.CoordinateUtil;
+import net.hollowcube.schem.util.Rotation;
+import net.hollowcube.schem.writer.SchematicWriter;
+import net.kyori.adventure.nbt.ByteArrayBinaryTag;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.kyori.adventure.nbt.IntArrayBinaryTag;
 import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.block.Block;
+import net.minestom.server.instance.block.BlockHandler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 
 
 public class SchematicLoadTest {
@@ -53,6 +81,396 @@ public class SchematicLoadTest {
         Assertions.assertEquals(palletData, blockData);
     }
 
+    @Test
+    public void testSpongeSchematicStreamLoad(@TempDir Path tempDir) throws IOException {
+        byte[] data;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("2x2_chunk_vert.schem")) {
+            Assertions.assertNotNull(is);
+            data = is.readAllBytes();
+        }
+
+        Schematic fromBytes = SchematicReader.sponge().read(data);
+        Schematic fromStream = SchematicReader.sponge().read(new ByteArrayInputStream(data));
+        Schematic fromChannel = SchematicReader.detecting().read(Channels.newChannel(new ByteArrayInputStream(data)));
+        Path file = Files.write(tempDir.resolve("2x2_chunk_vert.schem"), data);
+        Schematic fromPath = SchematicReader.detecting().read(file);
+
+        for (Schematic schematic : List.of(fromStream, fromChannel, fromPath)) {
+            Assertions.assertEquals(fromBytes.size(), schematic.size());
+            Assertions.assertEquals(fromBytes.offset(), schematic.offset());
+            Assertions.assertEquals(fromBytes.blockPalette(), schematic.blockPalette());
+            Assertions.assertEquals(fromBytes.blockData(), schematic.blockData());
+            Assertions.assertEquals(fromBytes.blockStorage(), schematic.blockStorage());
+            Assertions.assertEquals(fromBytes.blockEntities().size(), schematic.blockEntities().size());
+        }
+    }
+
+    @Test
+    public void testStreamReadStopsAtSchematicEnd() throws IOException {
+        byte[] data;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("2x2_chunk_vert.schem")) {
+            Assertions.assertNotNull(is);
+            data = is.readAllBytes();
+        }
+        byte[] trailing = "trailing data".getBytes(StandardCharsets.UTF_8);
+        var combined = new ByteArrayOutputStream();
+        combined.write(data);
+        combined.write(trailing);
+
+        // Markable streams are left directly after the schematic
+        for (var reader : List.of(SchematicReader.sponge(), SchematicReader.detecting())) {
+            var stream = new ByteArrayInputStream(combined.toByteArray());
+            Assertions.assertEquals(new Vec(32, 384, 32), reader.read(stream).size());
+            Assertions.assertArrayEquals(trailing, stream.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testSpongeSchematicHeader() throws IOException {
+        byte[] data;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("2x2_chunk_vert.schem")) {
+            Assertions.assertNotNull(is);
+            data = is.readAllBytes();
+        }
+
+        SchematicHeader expected = SchematicHeader.of(SchematicReader.sponge().read(data));
+        Assertions.assertEquals(SchematicHeader.Format.SPONGE, expected.format());
+        Assertions.assertEquals(expected, SchematicReader.sponge().readHeader(data));
+        Assertions.assertEquals(expected, SchematicReader.detecting().readHeader(data));
+        Assertions.assertEquals(expected, SchematicReader.detecting().readHeader(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void testBuilderBlockEntityRoundTrip() throws IOException {
+        var builder = SchematicBuilder.builder();
+        builder.block(0, 0, 0, chest("first"));
+        builder.block(1, 0, 0, chest("second"));
+        builder.block(2, 0, 0, chest("first"));
+        // Overwriting a block entity with a plain block must drop it
+        builder.block(2, 0, 0, Block.STONE);
+
+        Schematic schematic = SchematicReader.sponge().read(SchematicWriter.sponge().write(builder.build()));
+        assertChests(schematic);
+        Assertions.assertEquals(Block.STONE, schematic.blockPalette().get(schematic.blockStorage().get(2, 0, 0)));
+        Assertions.assertEquals(2, schematic.blockEntities().size());
+    }
+
+    @Test
+    public void testSizedBuilderIsReusableAfterBuild() {
+        var builder = SchematicBuilder.builder(new Vec(4, 4, 4));
+        builder.block(0, 0, 0, Block.STONE);
+        builder.block(1, 0, 0, chest("first"));
+        var first = builder.build();
+
+        builder.block(0, 0, 0, Block.DIRT);
+        builder.block(1, 0, 0, Block.AIR);
+        builder.fill(new Vec(0, 1, 0), new Vec(3, 1, 3), Block.GLASS);
+        var second = builder.build();
+
+        // Writes after a build must not change the schematic that was already built
+        Assertions.assertEquals(Block.STONE, first.blockPalette().get(first.blockStorage().get(0, 0, 0)));
+        Assertions.assertEquals(Block.AIR, first.blockPalette().get(first.blockStorage().get(0, 1, 0)));
+        Assertions.assertEquals(1, first.blockEntities().size());
+
+        Assertions.assertEquals(Block.DIRT, second.blockPalette().get(second.blockStorage().get(0, 0, 0)));
+        Assertions.assertEquals(Block.GLASS, second.blockPalette().get(second.blockStorage().get(3, 1, 3)));
+        Assertions.assertEquals(0, second.blockEntities().size());
+    }
+
+    @Test
+    public void testEntitiesOnlySpongeSchematic() {
+        Assertions.assertEquals(1, BlockStorage.bitsFor(0));
+        Assertions.assertEquals(1, BlockStorage.bitsFor(1));
+
+        var entity = CompoundBinaryTag.builder().putString("Id", "minecraft:pig").build();
+        var schematic = new SpongeSchematic(
+                CompoundBinaryTag.empty(), new Vec(2, 2, 2), Vec.ZERO,
+                List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
+                List.of(), SpongeSchematic.EMPTY_BYTE_ARRAY,
+                Int2ObjectMaps.emptyMap(), List.of(entity)
+        );
+        Assertions.assertEquals(List.of(entity), schematic.entities());
+        Assertions.assertEquals(0, schematic.blockStorage().volume());
+    }
+
+    @Test
+    public void testConcurrentBuilderMultiThreadWrite() throws Exception {
+        var builder = SchematicBuilder.concurrent();
+        var blocks = List.of(Block.STONE, Block.DIRT, Block.OAK_PLANKS, Block.GLASS);
+
+        // One thread per 16x16 column, each writing a different block
+        try (var executor = Executors.newFixedThreadPool(blocks.size())) {
+            var tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < blocks.size(); i++) {
+                int baseX = (i & 1) << 4, baseZ = (i >> 1) << 4;
+                var block = blocks.get(i);
+                tasks.add(() -> {
+                    builder.fill(new Vec(baseX, 0, baseZ), new Vec(baseX + 15, 15, baseZ + 15), block);
+                    return null;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) future.get();
+        }
+        // Chests with different nbt in the same column, one of which is overwritten again
+        builder.block(0, 0, 0, chest("first"));
+        builder.block(1, 0, 0, chest("second"));
+        builder.block(2, 0, 0, chest("first"));
+        builder.block(2, 0, 0, Block.STONE);
+
+        Schematic schematic = SchematicReader.sponge().read(SchematicWriter.sponge().write(builder.build()));
+        Assertions.assertEquals(new Vec(32, 16, 32), schematic.size());
+        assertChests(schematic);
+        Assertions.assertEquals(2, schematic.blockEntities().size());
+
+        var palette = schematic.blockPalette();
+        var storage = schematic.blockStorage();
+        for (int i = 0; i < blocks.size(); i++) {
+            int x = ((i & 1) << 4) + 8, z = ((i >> 1) << 4) + 8;
+            Assertions.assertEquals(blocks.get(i), palette.get(storage.get(x, 15, z)));
+        }
+    }
+
+    @Test
+    public void testLitematicaMultiRegionRoundTrip() throws IOException {
+        var states = List.copyOf(Block.REDSTONE_WIRE.possibleStates());
+        // Air is added to each region palette, so these are 3 and 5 bit entries which straddle longs
+        var small = region(new Vec(0, 0, 0), new Vec(5, 4, 3), states.subList(0, 5), false);
+        var large = region(new Vec(8, 1, -2), new Vec(7, 3, 5), states.subList(5, 24), true);
+
+        var regions = new LinkedHashMap<String, Schematic>();
+        regions.put("small", small);
+        regions.put("large", large);
+        var schematic = new LitematicaSchematic(CompoundBinaryTag.empty(), new Vec(15, 4, 5), regions);
+
+        var read = SchematicReader.litematica().read(SchematicWriter.litematica().write(schematic));
+        var readRegions = Assertions.assertInstanceOf(LitematicaSchematic.class, read).regions();
+        Assertions.assertEquals(List.of("small", "large"), List.copyOf(readRegions.keySet()));
+        for (var entry : regions.entrySet()) {
+            var expected = entry.getValue();
+            var actual = readRegions.get(entry.getKey());
+            Assertions.assertEquals(expected.size(), actual.size());
+            Assertions.assertEquals(expected.offset(), actual.offset());
+            for (int index = 0; index < expected.blockStorage().volume(); index++) {
+                Assertions.assertEquals(
+                        expected.blockPalette().get(expected.blockStorage().get(index)),
+                        actual.blockPalette().get(actual.blockStorage().get(index))
+                );
+            }
+        }
+
+        var blockEntities = readRegions.get("large").blockEntities();
+        Assertions.assertEquals(1, blockEntities.size());
+        var chest = blockEntities.getFirst();
+        Assertions.assertEquals(new Vec(1, 2, 3), chest.position());
+        Assertions.assertEquals("second", chest.data().getString("CustomName"));
+        Assertions.assertFalse(chest.data().keySet().contains("id"));
+    }
+
+    /**
+     * Builds a region using every one of the given blocks, optionally with a chest at (1, 2, 3).
+     */
+    private static Schematic region(Vec offset, Vec size, List<Block> blocks, boolean withChest) {
+        var builder = SchematicBuilder.builder();
+        for (int y = 0; y < size.blockY(); y++) {
+            for (int z = 0; z < size.blockZ(); z++) {
+                for (int x = 0; x < size.blockX(); x++)
+                    builder.block(x, y, z, blocks.get((x * 7 + y * 3 + z) % blocks.size()));
+            }
+        }
+        if (withChest) builder.block(1, 2, 3, chest("second"));
+        builder.offset(offset);
+        return builder.build();
+    }
+
+    @Test
+    public void testStructureWriterRoundTrip() throws IOException {
+        var builder = SchematicBuilder.builder(new Vec(4, 2, 3));
+        builder.block(0, 0, 0, chest("first"));
+        builder.block(1, 0, 0, chest("second"));
+        builder.block(2, 0, 0, Block.STONE);
+        builder.block(3, 0, 0, Block.STRUCTURE_VOID);
+        builder.block(0, 1, 2, Block.DIRT);
+        var schematic = Assertions.assertInstanceOf(SpongeSchematic.class, builder.build());
+
+        // Air and structure voids are left out by default
+        var read = SchematicReader.structure().read(SchematicWriter.structure().write(schematic));
+        Assertions.assertEquals(4, Assertions.assertInstanceOf(Structure.class, read).blockCount());
+        assertStructureBlocks(schematic, read);
+        assertChests(read);
+
+        // Air is kept when included, structure voids never are
+        read = SchematicReader.structure().read(SchematicWriter.structure(true).write(schematic));
+        Assertions.assertEquals(4 * 2 * 3 - 1, Assertions.assertInstanceOf(Structure.class, read).blockCount());
+        assertStructureBlocks(schematic, read);
+        assertChests(read);
+    }
+
+    @Test
+    public void testLitematicaToStructureRoundTrip() throws IOException {
+        var regions = new LinkedHashMap<String, Schematic>();
+        regions.put("chest", region(new Vec(2, 0, 0), new Vec(2, 3, 4), List.of(Block.STONE, Block.AIR), true));
+        regions.put("dirt", region(new Vec(-1, 0, 0), new Vec(1, 1, 1), List.of(Block.DIRT), false));
+        var schematic = new LitematicaSchematic(CompoundBinaryTag.empty(), new Vec(5, 3, 4), regions);
+
+        var read = SchematicReader.structure().read(SchematicWriter.structure().write(schematic));
+        assertStructureBlocks(schematic, read);
+
+        // Block entities are relative to the region, and must be moved to the flattened origin at x=-1
+        var blockEntities = List.copyOf(read.blockEntities());
+        Assertions.assertEquals(1, blockEntities.size());
+        var chest = blockEntities.getFirst();
+        Assertions.assertEquals(new Vec(4, 2, 3), chest.position());
+        Assertions.assertEquals("minecraft:chest", chest.id());
+        Assertions.assertEquals("second", chest.data().getString("CustomName"));
+    }
+
+    @Test
+    public void testStructureAndLitematicaHeadersMatchRead() throws IOException {
+        // The palette has no air, which must be added to the header palette as it is to the read palette
+        var structure = Structure.builder(new Vec(2, 1, 1), List.<Block[]>of(new Block[]{Block.STONE}))
+                .block(0, 0, 0, 0, null)
+                .build();
+        byte[] data = SchematicWriter.structure().write(structure);
+        var expected = SchematicHeader.of(SchematicReader.structure().read(data));
+        Assertions.assertEquals(List.of(Block.STONE, Block.AIR), expected.blockPalette());
+        Assertions.assertEquals(expected, SchematicReader.structure().readHeader(data));
+        Assertions.assertEquals(expected, SchematicReader.detecting().readHeader(new ByteArrayInputStream(data)));
+
+        var regions = new LinkedHashMap<String, Schematic>();
+        regions.put("first", region(new Vec(2, 0, 0), new Vec(2, 3, 4), List.of(Block.STONE, Block.GLASS), true));
+        regions.put("second", region(new Vec(-1, 0, 0), new Vec(1, 1, 1), List.of(Block.DIRT, Block.STONE), false));
+        data = SchematicWriter.litematica().write(new LitematicaSchematic(CompoundBinaryTag.empty(), new Vec(5, 3, 4), regions));
+        expected = SchematicHeader.of(SchematicReader.litematica().read(data));
+        Assertions.assertEquals(new Vec(-1, 0, 0), expected.offset());
+        Assertions.assertEquals(expected, SchematicReader.litematica().readHeader(data));
+        Assertions.assertEquals(expected, SchematicReader.detecting().readHeader(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Asserts that a structure read back has the same blocks in the same positions, where structure voids are air.
+     */
+    private static void assertStructureBlocks(Schematic expected, Schematic actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        var expectedStorage = expected.blockStorage();
+        var actualStorage = actual.blockStorage();
+        for (int y = 0; y < expectedStorage.sizeY(); y++) {
+            for (int z = 0; z < expectedStorage.sizeZ(); z++) {
+                for (int x = 0; x < expectedStorage.sizeX(); x++) {
+                    var block = expected.blockPalette().get(expectedStorage.get(x, y, z));
+                    if (block.id() == Block.STRUCTURE_VOID.id()) block = Block.AIR;
+                    Assertions.assertEquals(block, actual.blockPalette().get(actualStorage.get(x, y, z)),
+                            "block at " + x + ", " + y + ", " + z);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAxiomBlueprintSectionsMatchFlattened() {
+        // A uniform stone section at a negative section x, next to a paletted section
+        var uniform = new AxiomBlueprint.SectionData(new Vec(-1, 0, 0), List.of(Block.STONE), null);
+        var sectionPalette = List.of(Block.AIR, Block.DIRT, Block.GLASS);
+        var data = new int[AxiomBlueprint.BLOCK_PALETTE_SIZE];
+        for (int index = 0; index < data.length; index++) data[index] = (index * 7 + (index >> 8)) % sectionPalette.size();
+        var paletted = new AxiomBlueprint.SectionData(new Vec(0, 0, 0), sectionPalette, IntArrayBinaryTag.intArrayBinaryTag(data));
+
+        var blueprint = new AxiomBlueprint(CompoundBinaryTag.empty(), ByteArrayBinaryTag.byteArrayBinaryTag(),
+                new Vec(32, 16, 16), List.of(Block.STONE, Block.AIR, Block.DIRT, Block.GLASS), List.of(uniform, paletted));
+        Assertions.assertEquals(new Vec(-16, 0, 0), blueprint.offset());
+
+        var palette = blueprint.blockPalette();
+        var storage = blueprint.blockStorage();
+        var offset = blueprint.offset();
+        int[] count = {0};
+        blueprint.forEachBlockState(Rotation.NONE, (x, y, z, stateId) -> {
+            var flattened = palette.get(storage.get(x - offset.blockX(), y - offset.blockY(), z - offset.blockZ()));
+            Assertions.assertEquals(flattened.stateId(), stateId, "block at " + x + ", " + y + ", " + z);
+            count[0]++;
+        });
+        Assertions.assertEquals(2 * AxiomBlueprint.BLOCK_PALETTE_SIZE, count[0]);
+
+        // Sections are pasted directly from their section index order data, which must agree with the flattened view
+        for (var section : blueprint.sections()) {
+            var base = section.chunkPos().mul(16).sub(offset);
+            for (int index = 0; index < AxiomBlueprint.BLOCK_PALETTE_SIZE; index++) {
+                var expected = section.palette().get(section.blockData() == null ? 0 : section.blockData().get(index));
+                int x = base.blockX() + (index & 15), y = base.blockY() + (index >> 8), z = base.blockZ() + ((index >> 4) & 15);
+                Assertions.assertEquals(expected, palette.get(storage.get(x, y, z)));
+            }
+        }
+        Assertions.assertEquals(Block.STONE, palette.get(storage.get(0, 0, 0)));
+        Assertions.assertEquals(sectionPalette.get(data[0]), palette.get(storage.get(16, 0, 0)));
+    }
+
+    @Test
+    public void testBlockStateRotateAndMirrorAreInvolutions() {
+        for (var block : Block.values()) {
+            for (var state : block.possibleStates()) {
+                int rotated = state.stateId();
+                for (int i = 0; i < 4; i++) rotated = CoordinateUtil.rotateStateId(rotated, Rotation.CLOCKWISE_90);
+                Assertions.assertEquals(state.stateId(), rotated, () -> "rotating " + state.name() + state.properties() + " four times");
+
+                for (var axis : Axis.values()) {
+                    int mirrored = CoordinateUtil.mirrorStateId(CoordinateUtil.mirrorStateId(state.stateId(), axis), axis);
+                    Assertions.assertEquals(state.stateId(), mirrored, () -> "mirroring " + state.name() + state.properties() + " twice across " + axis);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlockStateTransformsMatchVanilla() {
+        // Stairs keep their shape when rotated, and swap left and right when mirrored
+        var stair = Block.OAK_STAIRS.withProperties(Map.of("facing", "north", "half", "bottom", "shape", "inner_left"));
+        Assertions.assertEquals(stair.withProperty("facing", "east"),
+                CoordinateUtil.rotateBlock(stair, Rotation.CLOCKWISE_90));
+        Assertions.assertEquals(stair.withProperties(Map.of("facing", "south", "shape", "inner_right")),
+                CoordinateUtil.mirrorBlock(stair, Axis.Z));
+        Assertions.assertEquals(stair.withProperty("half", "top"), CoordinateUtil.mirrorBlock(stair, Axis.Y));
+
+        // Rail shapes always name north or south first
+        var rail = Block.RAIL.withProperty("shape", "north_east");
+        Assertions.assertEquals(rail.withProperty("shape", "south_east"), CoordinateUtil.rotateBlock(rail, Rotation.CLOCKWISE_90));
+        Assertions.assertEquals(rail.withProperty("shape", "south_west"), CoordinateUtil.rotateBlock(rail, Rotation.CLOCKWISE_180));
+        Assertions.assertEquals(rail.withProperty("shape", "north_west"), CoordinateUtil.mirrorBlock(rail, Axis.X));
+        var ascending = Block.RAIL.withProperty("shape", "ascending_north");
+        Assertions.assertEquals(ascending.withProperty("shape", "ascending_east"), CoordinateUtil.rotateBlock(ascending, Rotation.CLOCKWISE_90));
+        Assertions.assertEquals(ascending.withProperty("shape", "ascending_south"), CoordinateUtil.mirrorBlock(ascending, Axis.Z));
+
+        // Standing signs have 16 rotations, 0 is south and 4 is west
+        var sign = Block.OAK_SIGN.withProperty("rotation", "3");
+        Assertions.assertEquals(sign.withProperty("rotation", "7"), CoordinateUtil.rotateBlock(sign, Rotation.CLOCKWISE_90));
+        Assertions.assertEquals(sign.withProperty("rotation", "15"), CoordinateUtil.rotateBlock(sign, Rotation.CLOCKWISE_270));
+        Assertions.assertEquals(sign.withProperty("rotation", "13"), CoordinateUtil.mirrorBlock(sign, Axis.X));
+        Assertions.assertEquals(sign.withProperty("rotation", "5"), CoordinateUtil.mirrorBlock(sign, Axis.Z));
+        var wallSign = Block.OAK_WALL_SIGN.withProperty("facing", "north");
+        Assertions.assertEquals(wallSign.withProperty("facing", "east"), CoordinateUtil.rotateBlock(wallSign, Rotation.CLOCKWISE_90));
+    }
+
+    private static Block chest(String name) {
+        return Block.CHEST.withHandler(BlockHandler.Dummy.get("minecraft:chest"))
+                .withNbt(CompoundBinaryTag.builder().putString("CustomName", name).build());
+    }
+
+    /**
+     * Asserts that there are chests named {@code first} and {@code second} at x=0 and x=1, each with its own nbt.
+     */
+    private static void assertChests(Schematic schematic) {
+        var palette = schematic.blockPalette();
+        var storage = schematic.blockStorage();
+        var names = List.of("first", "second");
+        for (int x = 0; x < names.size(); x++) {
+            Assertions.assertEquals(Block.CHEST, palette.get(storage.get(x, 0, 0)));
+
+            var position = new Vec(x, 0, 0);
+            var blockEntity = schematic.blockEntities().stream()
+                    .filter(it -> it.position().sameBlock(position))
+                    .findFirst().orElseThrow();
+            Assertions.assertEquals("minecraft:chest", blockEntity.id());
+            Assertions.assertEquals(names.get(x), blockEntity.data().getString("CustomName"));
+        }
+    }
+
     public record BlockData(@NotNull String key, @Nullable String nbt) {
         public BlockData(Block block) {
             this(block.key().asString(), block.nbt() != null ? block.nbt().toString() : null);
@@ -0,0 +1,118 @@
+package net.hollowcube.schem.writer;
+
+import net.hollowcube.schem.Schematic;
+import net.hollowcube.schem.builder.SchematicBuilder;
+import net.hollowcube.schem.reader.SchematicReader;
+import net.minestom.server.instance.block.Block;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+public class CompressionTest {
+    private static final int BLOCK_SIZE = 512;
+
+    @Test
+    public void testParallelMultiMemberRoundTrip() throws IOException {
+        var builder = SchematicBuilder.builder();
+        var blocks = new Block[]{Block.STONE, Block.DIRT, Block.GLASS, Block.OAK_PLANKS};
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++)
+                    builder.block(x, y, z, blocks[(x * 7 + y * 3 + z) % blocks.length]);
+            }
+        }
+        Schematic schematic = builder.build();
+
+        byte[] single, parallel;
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            single = SchematicWriter.sponge().write(schematic, Compression.gzip());
+            parallel = SchematicWriter.sponge().write(schematic,
+                    Compression.parallel(Deflater.BEST_SPEED, executor).withBlockSize(BLOCK_SIZE));
+        }
+
+        // Both decompress to the same nbt, which spans many members
+        byte[] expected = gunzip(single);
+        Assertions.assertTrue(expected.length > BLOCK_SIZE * 4, "expected several members");
+        Assertions.assertTrue(countMembers(parallel) > 4);
+        Assertions.assertArrayEquals(expected, gunzip(parallel));
+
+        var read = SchematicReader.sponge().read(parallel);
+        Assertions.assertEquals(schematic.size(), read.size());
+        Assertions.assertEquals(schematic.blockPalette(), read.blockPalette());
+        Assertions.assertEquals(schematic.blockStorage(), read.blockStorage());
+        Assertions.assertEquals(read.blockStorage(), SchematicReader.detecting().read(new ByteArrayInputStream(parallel)).blockStorage());
+    }
+
+    @Test
+    public void testParallelEmptyStream() throws IOException {
+        var compressed = compress(new byte[0]);
+        Assertions.assertEquals(1, countMembers(compressed));
+        Assertions.assertArrayEquals(new byte[0], gunzip(compressed));
+    }
+
+    @Test
+    public void testParallelExactMultipleOfBlockSize() throws IOException {
+        for (int blocks = 1; blocks <= 3; blocks++) {
+            var data = new byte[BLOCK_SIZE * blocks];
+            new Random(blocks).nextBytes(data);
+            var compressed = compress(data);
+            // No trailing empty member is written after a full block
+            Assertions.assertEquals(blocks, countMembers(compressed));
+            Assertions.assertArrayEquals(data, gunzip(compressed));
+        }
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var executor = Executors.newFixedThreadPool(2)) {
+            var compression = Compression.parallel(Deflater.DEFAULT_COMPRESSION, executor).withBlockSize(BLOCK_SIZE);
+            try (var stream = compression.open(out)) {
+                stream.write(data);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Counts the gzip members by walking them, each being the fixed header, raw deflate data and an 8 byte trailer.
+     */
+    private static int countMembers(byte[] data) throws IOException {
+        int members = 0, offset = 0;
+        while (offset < data.length) {
+            Assertions.assertEquals(0x1f, data[offset] & 0xFF);
+            Assertions.assertEquals(0x8b, data[offset + 1] & 0xFF);
+            var inflater = new Inflater(true);
+            try {
+                int headerEnd = offset + 10;
+                inflater.setInput(data, headerEnd, data.length - headerEnd);
+                var buffer = new byte[4096];
+                while (!inflater.finished()) {
+                    if (inflater.inflate(buffer) == 0 && inflater.needsInput())
+                        throw new IOException("truncated member");
+                }
+                offset = data.length - inflater.getRemaining() + 8;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+            members++;
+        }
+        return members;
+    }
+}